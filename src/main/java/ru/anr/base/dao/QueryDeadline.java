@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.dao;
+
+import javax.persistence.Query;
+import javax.persistence.QueryTimeoutException;
+
+/**
+ * The deadline of the current thread's work. It's set by the layer which
+ * receives a request with a limited time budget (e.g. API commands) and used
+ * by repositories to limit the time of queries with the standard JPA timeout
+ * hint. A query is not executed at all if the deadline is already missed.
+ * <p>
+ * The repositories created by {@link ru.anr.base.dao.config.repository.BaseRepositoryFactoryBean}
+ * apply the deadline to all their queries: derived, declared with
+ * {@code @Query} and built by the base repository. Inside a transaction the
+ * timeout is set as a property of the transaction's entity manager for the
+ * call of a repository method, so the queries created by the JPA provider get
+ * it too. Outside transactions, only the queries built by the base repository
+ * are limited. Queries created directly with an injected entity manager are
+ * not limited at all, {@link #apply(Query)} should be used for them.
+ *
+ * @created Oct 18, 2026
+ */
+public final class QueryDeadline {
+
+    /**
+     * The standard JPA hint for query timeouts (in milliseconds)
+     */
+    public static final String TIMEOUT_HINT = "javax.persistence.query.timeout";
+
+    /**
+     * The deadline of the current thread (epoch milliseconds)
+     */
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+
+    private QueryDeadline() {
+        // prevent instantiating
+    }
+
+    /**
+     * @return The deadline of the current thread (epoch milliseconds) or null,
+     * if it's not set
+     */
+    public static Long get() {
+        return DEADLINE.get();
+    }
+
+    /**
+     * Sets or removes the deadline of the current thread
+     *
+     * @param deadline The deadline (epoch milliseconds), null to remove
+     */
+    public static void set(Long deadline) {
+        if (deadline == null) {
+            DEADLINE.remove();
+        } else {
+            DEADLINE.set(deadline);
+        }
+    }
+
+    /**
+     * @return The remaining time in milliseconds (can be negative, if the
+     * deadline is missed) or {@link Long#MAX_VALUE}, if the deadline is not
+     * set
+     */
+    public static long remainingMillis() {
+        Long deadline = DEADLINE.get();
+        return (deadline == null) ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /**
+     * Applies the remaining time of the current thread to the query as the
+     * timeout hint
+     *
+     * @param q   The query
+     * @param <Q> The type of the query
+     * @return The same query
+     * @throws QueryTimeoutException if the deadline is already missed
+     */
+    public static <Q extends Query> Q apply(Q q) {
+
+        Integer timeout = timeout();
+        if (timeout != null) {
+            q.setHint(TIMEOUT_HINT, timeout);
+        }
+        return q;
+    }
+
+    /**
+     * Returns the value of the timeout hint for the remaining time of the
+     * current thread
+     *
+     * @return The timeout in milliseconds or null, if the deadline is not set
+     * @throws QueryTimeoutException if the deadline is already missed
+     */
+    public static Integer timeout() {
+
+        long remaining = remainingMillis();
+        if (remaining == Long.MAX_VALUE) {
+            return null;
+        }
+        if (remaining <= 0) {
+            throw new QueryTimeoutException("The deadline exceeded " + (-remaining) + " ms ago");
+        }
+        return timeoutMillis(remaining);
+    }
+
+    /**
+     * Converts the remaining time to the value of the timeout hint. Hibernate
+     * rounds the hint to whole seconds, so a sub-second value would become
+     * zero, i.e. no timeout at all. That's why the value is rounded up to
+     * whole seconds.
+     *
+     * @param remaining The remaining time in milliseconds (positive)
+     * @return The timeout in milliseconds, at least one second
+     */
+    public static int timeoutMillis(long remaining) {
+
+        long seconds = (Math.min(remaining, Integer.MAX_VALUE) + 999) / 1000;
+        return (int) Math.min(Math.max(seconds, 1) * 1000, Integer.MAX_VALUE / 1000 * 1000);
+    }
+}
@@ -20,6 +20,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.support.SimpleJpaRepository;
+import ru.anr.base.dao.QueryDeadline;
 import ru.anr.base.dao.repository.BaseRepository;
 import ru.anr.base.domain.BaseEntity;
 
@@ -74,7 +75,7 @@ public class BaseRepositoryImpl<T extends BaseEntity> extends SimpleJpaRepositor
     @Override
     public <S> List<S> query(String queryStr, Object... params) {
 
-        Query q = entityManager.createQuery(queryStr);
+        Query q = QueryDeadline.apply(entityManager.createQuery(queryStr));
         if (params != null) {
             for (int i = 0; i < params.length; i++) {
                 q.setParameter(i + 1, params[i]);
@@ -120,7 +121,7 @@ public class BaseRepositoryImpl<T extends BaseEntity> extends SimpleJpaRepositor
     @Override
     public int execute(String queryStr, Object... params) {
 
-        Query q = entityManager.createQuery(queryStr);
+        Query q = QueryDeadline.apply(entityManager.createQuery(queryStr));
         if (params != null) {
             for (int i = 0; i < params.length; i++) {
                 q.setParameter(i + 1, params[i]);
@@ -136,7 +137,7 @@ public class BaseRepositoryImpl<T extends BaseEntity> extends SimpleJpaRepositor
     }
 
     private Query buildNativeQuery(String sql, Map<String, Object> params) {
-        Query query = entityManager.createNativeQuery(sql);
+        Query query = QueryDeadline.apply(entityManager.createNativeQuery(sql));
         if (params != null) {
             for (Parameter<?> qp : query.getParameters()) {
                 if (params.containsKey(qp.getName())) {
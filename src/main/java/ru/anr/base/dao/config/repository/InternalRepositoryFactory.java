@@ -39,6 +39,8 @@ public class InternalRepositoryFactory<T extends BaseEntity> extends JpaReposito
      */
     InternalRepositoryFactory(EntityManager entityManager) {
         super(entityManager);
+        addRepositoryProxyPostProcessor(
+                (factory, information) -> factory.addAdvice(new QueryDeadlineInterceptor(entityManager)));
     }
 
     protected JpaRepositoryImplementation<?, ?> getTargetRepository(RepositoryInformation information,
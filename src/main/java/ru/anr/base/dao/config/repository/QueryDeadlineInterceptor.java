@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.dao.config.repository;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.anr.base.dao.QueryDeadline;
+
+import javax.persistence.EntityManager;
+
+/**
+ * Applies the {@link QueryDeadline} of the current thread to all queries of a
+ * repository method, including derived and {@code @Query} ones which are
+ * created by Spring Data. Inside a transaction the timeout is set as a
+ * property of the transaction's entity manager for the time of the call and
+ * the previous value is restored afterwards. A method is not called at all if
+ * the deadline is already missed.
+ *
+ * @created Oct 18, 2026
+ */
+class QueryDeadlineInterceptor implements MethodInterceptor {
+
+    /**
+     * The shared entity manager of the repository
+     */
+    private final EntityManager entityManager;
+
+    /**
+     * The constructor
+     *
+     * @param entityManager The shared entity manager of the repository
+     */
+    QueryDeadlineInterceptor(EntityManager entityManager) {
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+
+        Integer timeout = QueryDeadline.timeout();
+        if (timeout == null || !TransactionSynchronizationManager.isActualTransactionActive()) {
+            // Without a transaction, the property would be set to a temporary entity manager
+            return invocation.proceed();
+        }
+
+        Object previous = entityManager.getProperties().get(QueryDeadline.TIMEOUT_HINT);
+        entityManager.setProperty(QueryDeadline.TIMEOUT_HINT, timeout);
+        try {
+            return invocation.proceed();
+        } finally {
+            // Zero means no timeout (a property can't be removed)
+            entityManager.setProperty(QueryDeadline.TIMEOUT_HINT, (previous == null) ? 0 : previous);
+        }
+    }
+}
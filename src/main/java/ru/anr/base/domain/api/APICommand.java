@@ -15,7 +15,6 @@
  */
 package ru.anr.base.domain.api;
 
-import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,8 +26,6 @@ import ru.anr.base.domain.api.models.SortModel.SortDirection;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
@@ -54,6 +51,12 @@ public class APICommand extends BaseParent implements Serializable {
      */
     private static final long serialVersionUID = 2901448044671838025L;
 
+    /**
+     * The name of the context parameter with the idempotency key of a
+     * command
+     */
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
     /**
      * Method type
      */
@@ -89,6 +92,22 @@ public class APICommand extends BaseParent implements Serializable {
      */
     private RawFormatTypes responseFormat = RawFormatTypes.JSON;
 
+    /**
+     * The 'Accept' header of the request. If it's set, the response format is
+     * negotiated with it when the command is processed.
+     */
+    private String accept;
+
+    /**
+     * Compression of the request stream
+     */
+    private ContentEncoding requestEncoding = ContentEncoding.IDENTITY;
+
+    /**
+     * Compression of the response stream
+     */
+    private ContentEncoding responseEncoding = ContentEncoding.IDENTITY;
+
     /**
      * Parsed request model
      */
@@ -100,6 +119,27 @@ public class APICommand extends BaseParent implements Serializable {
      */
     private Object response;
 
+    /**
+     * The ETag of the response known by the client (if any)
+     */
+    private String ifNoneMatch;
+
+    /**
+     * The ETag of the resulted response (if it's cached)
+     */
+    private String etag;
+
+    /**
+     * True, if the resulted response has the same ETag as the client has
+     */
+    private boolean notModified;
+
+    /**
+     * The time (epoch milliseconds) after which the result of the command is
+     * not needed anymore (null, if not limited)
+     */
+    private Long deadline;
+
     /**
      * Constructor of new command
      *
@@ -137,6 +177,56 @@ public class APICommand extends BaseParent implements Serializable {
         return this;
     }
 
+    /**
+     * Sets the request format by the media type of the request
+     *
+     * @param contentType The 'Content-Type' header
+     * @return This object
+     */
+    public APICommand contentType(String contentType) {
+
+        RawFormatTypes f = RawFormatTypes.ofMediaType(contentType);
+        if (f == null) {
+            throw APIException.withCode("Unsupported content type: " + contentType, APIException.ERROR_CLIENT);
+        }
+        setRequestFormat(f);
+        return this;
+    }
+
+    /**
+     * Sets the media types accepted for the response. The response format is
+     * negotiated with them when the command is processed.
+     *
+     * @param accept The 'Accept' header
+     * @return This object
+     */
+    public APICommand accept(String accept) {
+        setAccept(accept);
+        return this;
+    }
+
+    /**
+     * Sets the compression of the request stream
+     *
+     * @param e The encoding
+     * @return This object
+     */
+    public APICommand requestEncoding(ContentEncoding e) {
+        setRequestEncoding(e);
+        return this;
+    }
+
+    /**
+     * Sets the compression of the response stream
+     *
+     * @param e The encoding
+     * @return This object
+     */
+    public APICommand responseEncoding(ContentEncoding e) {
+        setResponseEncoding(e);
+        return this;
+    }
+
     /**
      * Adds raw request data (not parsed yet)
      *
@@ -148,6 +238,72 @@ public class APICommand extends BaseParent implements Serializable {
         return this;
     }
 
+    /**
+     * Adds the ETag of the response the client already has
+     *
+     * @param tag The ETag value
+     * @return This object
+     */
+    public APICommand ifNoneMatch(String tag) {
+        setIfNoneMatch(tag);
+        return this;
+    }
+
+    /**
+     * Sets the idempotency key of a POST/PUT command. If the command with the
+     * same key has been already executed successfully, its response is
+     * returned without the execution.
+     *
+     * @param key The key generated by the client
+     * @return This object
+     */
+    public APICommand idempotencyKey(String key) {
+        contexts.put(IDEMPOTENCY_KEY, key);
+        return this;
+    }
+
+    /**
+     * Limits the time budget of the command starting from now
+     *
+     * @param millis The timeout in milliseconds
+     * @return This object
+     */
+    public APICommand timeout(long millis) {
+        setDeadline(System.currentTimeMillis() + millis);
+        return this;
+    }
+
+    /**
+     * Sets the time after which the result of the command is not needed
+     * (e.g. propagated from the caller)
+     *
+     * @param epochMillis The deadline in epoch milliseconds
+     * @return This object
+     */
+    public APICommand deadline(long epochMillis) {
+        setDeadline(epochMillis);
+        return this;
+    }
+
+    /**
+     * Calculates the remaining time budget of the command. Long-running
+     * strategies can use it to stop their work or to limit calls to other
+     * services.
+     *
+     * @return The remaining time in milliseconds (negative, if the deadline is
+     * missed) or {@link Long#MAX_VALUE}, if the command has no deadline
+     */
+    public long remainingMillis() {
+        return (deadline == null) ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+
+    /**
+     * @return true, if the deadline of the command is missed
+     */
+    public boolean isExpired() {
+        return remainingMillis() <= 0;
+    }
+
     /**
      * Recognizes the type of operation according to the specified http method
      *
@@ -204,92 +360,63 @@ public class APICommand extends BaseParent implements Serializable {
     public APICommand params(Map<String, ?> params) {
 
         logger.trace("Original HTTP parameters: {}", params);
-
         request = new RequestModel();
-        Map<String, ?> copy = new HashMap<>(params);
-
-        // The number of the current page in multi-paged results
-        Object v = copy.get("page");
-        if (v != null) {
-            request.page = parse(v.toString(), Integer.class);
-            copy.remove("page");
-        }
 
-        // The number of items per page
-        v = copy.get("per_page");
-        if (v != null) {
-            request.perPage = parse(v.toString(), Integer.class);
-            copy.remove("per_page");
-        }
-
-        // A list of queried fields
-        v = copy.get("fields");
-        if (v != null) {
-            request.fields = parseList(v.toString());
-            copy.remove("fields");
-        }
-
-        // the query parameter
-        v = copy.get("q");
-        if (v != null) {
-            request.search = v.toString();
-            copy.remove("q");
-        }
-
-        // the sort field
-        v = copy.get("sort");
-        if (v != null) {
-            request.sorted = parseSort(parseList(v.toString()));
-            copy.remove("sort");
-            logger.trace("Parsed sorting: {}", request.sorted);
+        for (Map.Entry<String, ?> e : params.entrySet()) {
+
+            Object v = e.getValue();
+            String name = e.getKey();
+
+            if (v != null && "page".equals(name)) {
+                // The number of the current page in multi-paged results
+                request.page = parse(v.toString(), Integer.class);
+            } else if (v != null && "per_page".equals(name)) {
+                // The number of items per page
+                request.perPage = parse(v.toString(), Integer.class);
+            } else if (v != null && "fields".equals(name)) {
+                // A list of queried fields
+                request.fields = QueryParser.DEFAULT.parseList(v.toString());
+            } else if (v != null && "q".equals(name)) {
+                // the query parameter
+                request.search = v.toString();
+            } else if (v != null && "sort".equals(name)) {
+                // the sort field
+                request.sorted = QueryParser.DEFAULT.parseSort(v.toString());
+                logger.trace("Parsed sorting: {}", request.sorted);
+            } else {
+                // The rest of parameters is used depending on the command's context
+                this.contexts.put(name, v);
+            }
         }
-        /*
-         * The rest of parameters is used depending on the command's context
-         */
-        this.contexts.putAll(copy);
         return this;
     }
 
     /**
-     * Parses the sort fields with +/- markers to corresponding {@link SortModel}.
+     * Parses the raw HTTP url query string in one pass to set additional
+     * properties of the command (see {@link #params(Map)} for the supported
+     * parameters). Values of fields are separated by comma (','), for example,
+     * 'fields=id,name' or 'sort=-created,+name'.
      *
-     * @param values The list of fields with expected prefixed +/-
-     * @return The resulted list of {@link SortModel} objects
-     */
-    private List<SortModel> parseSort(List<String> values) {
-
-        List<SortModel> list = list();
-        for (String v : values) {
-            // '+' is ignored or can be absent
-            if (v.charAt(0) == '+' || v.charAt(0) == ' ') {
-                list.add(new SortModel(v.substring(1), SortDirection.ASC));
-            } else if (Character.isLetter(v.charAt(0))) { // sort=created means sorting ASC (like omitted '+')
-                list.add(new SortModel(v, SortDirection.ASC));
-            } else if (v.charAt(0) == '-') {
-                list.add(new SortModel(v.substring(1), SortDirection.DESC));
-            }
-        }
-        return list;
+     * @param query The query string (without '?')
+     * @return This object
+     */
+    public APICommand query(CharSequence query) {
+        return query(query, QueryParser.DEFAULT);
     }
 
     /**
-     * Parses values separated by comma (','). We recognize list fields by the ',' command
-     * inside. If just only one value of list is provided it must always have the comma in the end.
-     *
-     * <pre>
-     *     Examples:
-     *     states=New,Pending,Processed
-     *
-     *     // One value of list
-     *     states=New,
-     * </pre>
+     * Parses the raw HTTP url query string with the given parser which may
+     * know the names of fields used in queries.
      *
-     * @param s A string with values
-     * @return Parsed values
+     * @param query  The query string (without '?')
+     * @param parser The parser
+     * @return This object
      */
-    private List<String> parseList(String s) {
-        String[] array = StringUtils.split(s, ",");
-        return nullSafe(array, BaseParent::list).orElse(list());
+    public APICommand query(CharSequence query, QueryParser parser) {
+
+        logger.trace("Original HTTP query: {}", query);
+        request = parser.parse(query, contexts);
+        return this;
     }
 
     /**
@@ -391,6 +518,48 @@ public class APICommand extends BaseParent implements Serializable {
         this.responseFormat = responseFormat;
     }
 
+    /**
+     * @return the accept
+     */
+    public String getAccept() {
+        return accept;
+    }
+
+    /**
+     * @param accept the accept to set
+     */
+    public void setAccept(String accept) {
+        this.accept = accept;
+    }
+
+    /**
+     * @return the requestEncoding
+     */
+    public ContentEncoding getRequestEncoding() {
+        return requestEncoding;
+    }
+
+    /**
+     * @param requestEncoding the requestEncoding to set
+     */
+    public void setRequestEncoding(ContentEncoding requestEncoding) {
+        this.requestEncoding = requestEncoding;
+    }
+
+    /**
+     * @return the responseEncoding
+     */
+    public ContentEncoding getResponseEncoding() {
+        return responseEncoding;
+    }
+
+    /**
+     * @param responseEncoding the responseEncoding to set
+     */
+    public void setResponseEncoding(ContentEncoding responseEncoding) {
+        this.responseEncoding = responseEncoding;
+    }
+
     /**
      * @return the version
      */
@@ -521,4 +690,60 @@ public class APICommand extends BaseParent implements Serializable {
     public void setResponse(Object response) {
         this.response = response;
     }
+
+    /**
+     * @return the ifNoneMatch
+     */
+    public String getIfNoneMatch() {
+        return ifNoneMatch;
+    }
+
+    /**
+     * @param ifNoneMatch the ifNoneMatch to set
+     */
+    public void setIfNoneMatch(String ifNoneMatch) {
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    /**
+     * @return the etag
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @param etag the etag to set
+     */
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    /**
+     * @return true, if the response has not been modified
+     */
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    /**
+     * @param notModified the notModified to set
+     */
+    public void setNotModified(boolean notModified) {
+        this.notModified = notModified;
+    }
+
+    /**
+     * @return the deadline
+     */
+    public Long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param deadline the deadline to set
+     */
+    public void setDeadline(Long deadline) {
+        this.deadline = deadline;
+    }
 }
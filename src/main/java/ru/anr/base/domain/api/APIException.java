@@ -36,6 +36,23 @@ public final class APIException extends ApplicationException {
      */
     public static final int ERROR_CLIENT = -1;
 
+    /**
+     * Error code for methods which are not supported by a command
+     */
+    public static final int ERROR_METHOD_NOT_SUPPORTED = -2;
+
+    /**
+     * Error code for requests rejected because of the limits of concurrent
+     * executions or requests per second of a command
+     */
+    public static final int ERROR_TOO_MANY_REQUESTS = -3;
+
+    /**
+     * Error code for commands whose deadline is missed, so the result is not
+     * needed anymore
+     */
+    public static final int ERROR_DEADLINE_EXCEEDED = -4;
+
     private static final long serialVersionUID = -1705171832150544996L;
 
     /**
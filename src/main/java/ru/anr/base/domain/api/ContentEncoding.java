@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.domain.api;
+
+/**
+ * Compression of raw request/response models. It's orthogonal to the
+ * {@link RawFormatTypes} formats and is applied when the models are read from
+ * or written to streams.
+ *
+ * @created Oct 18, 2026
+ */
+public enum ContentEncoding {
+
+    /**
+     * No compression (default)
+     */
+    IDENTITY("identity"),
+    /**
+     * The gzip format (RFC 1952)
+     */
+    GZIP("gzip"),
+    /**
+     * The zlib format (RFC 1950), 'deflate' in HTTP
+     */
+    DEFLATE("deflate");
+
+    /**
+     * The name of the encoding in HTTP headers
+     */
+    private final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * @return The name used in 'Content-Encoding' HTTP headers
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * Finds the encoding by its HTTP name
+     *
+     * @param token The name (case-insensitive), null means no compression
+     * @return The encoding or null, if it's not supported
+     */
+    public static ContentEncoding of(String token) {
+
+        if (token == null || token.isEmpty()) {
+            return IDENTITY;
+        }
+        String t = token.trim();
+        if ("x-gzip".equalsIgnoreCase(t)) {
+            return GZIP;
+        }
+        for (ContentEncoding e : values()) {
+            if (e.token.equalsIgnoreCase(t)) {
+                return e;
+            }
+        }
+        return null;
+    }
+}
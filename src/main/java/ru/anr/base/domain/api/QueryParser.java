@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.domain.api;
+
+import ru.anr.base.domain.api.models.RequestModel;
+import ru.anr.base.domain.api.models.SortModel;
+import ru.anr.base.domain.api.models.SortModel.SortDirection;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A one-pass parser of a raw URL query string ('page=1&amp;per_page=10&amp;sort=-id')
+ * which fills a {@link RequestModel} directly: the 'page', 'per_page',
+ * 'fields', 'q' and 'sort' parameters go to the model, and other parameters
+ * are put to the given map of contexts. Only values with escaped characters
+ * are decoded, and names of parameters, fields and sorting fields are taken
+ * from the table of known names without creating new strings. The parser is
+ * immutable and thread-safe.
+ *
+ * @created Oct 18, 2026
+ */
+public final class QueryParser {
+
+    /**
+     * The parser which knows only the names of the standard parameters
+     */
+    public static final QueryParser DEFAULT = new QueryParser(new ArrayList<>());
+
+    private static final String PAGE = "page";
+    private static final String PER_PAGE = "per_page";
+    private static final String FIELDS = "fields";
+    private static final String SEARCH = "q";
+    private static final String SORT = "sort";
+
+    /**
+     * The open-addressing table of known names
+     */
+    private final String[] names;
+
+    /**
+     * Constructor
+     *
+     * @param knownNames The names of fields and parameters which are
+     *                   expected in queries
+     */
+    public QueryParser(Collection<String> knownNames) {
+
+        Set<String> all = new LinkedHashSet<>(knownNames);
+        all.add(PAGE);
+        all.add(PER_PAGE);
+        all.add(FIELDS);
+        all.add(SEARCH);
+        all.add(SORT);
+
+        int size = Integer.highestOneBit(Math.max(all.size(), 8) * 4);
+        this.names = new String[size];
+        for (String n : all) {
+            int i = n.hashCode() & (size - 1);
+            while (names[i] != null) {
+                i = (i + 1) & (size - 1);
+            }
+            names[i] = n;
+        }
+    }
+
+    /**
+     * Parses the query string
+     *
+     * @param query    The raw query string (without '?'), can be null
+     * @param contexts The map to put other parameters
+     * @return The parsed request model
+     */
+    public RequestModel parse(CharSequence query, Map<String, Object> contexts) {
+
+        RequestModel rq = new RequestModel();
+        int length = (query == null) ? 0 : query.length();
+
+        int start = 0;
+        while (start < length) {
+
+            int end = indexOf(query, '&', start, length);
+            int eq = indexOf(query, '=', start, end);
+
+            if (eq > start) {
+                String name = name(query, start, eq);
+                int from = Math.min(eq + 1, end);
+
+                switch (name) {
+                    case PAGE:
+                        rq.page = parseInt(query, from, end);
+                        break;
+                    case PER_PAGE:
+                        rq.perPage = parseInt(query, from, end);
+                        break;
+                    case FIELDS:
+                        rq.fields = parseList(query, from, end);
+                        break;
+                    case SEARCH:
+                        rq.search = value(query, from, end);
+                        break;
+                    case SORT:
+                        rq.sorted = parseSort(query, from, end);
+                        break;
+                    default:
+                        contexts.putIfAbsent(name, value(query, from, end));
+                }
+            }
+            start = end + 1;
+        }
+        return rq;
+    }
+
+    /**
+     * Splits the comma-separated values skipping empty ones. The value is
+     * expected to be already decoded (e.g. a parameter of the web layer), so
+     * it's not decoded again.
+     *
+     * @param s The string
+     * @return The list of values
+     */
+    public List<String> parseList(CharSequence s) {
+        return split(s, 0, s.length());
+    }
+
+    /**
+     * Parses the comma-separated sorting fields with optional '+' or '-'
+     * prefixes. The value is expected to be already decoded.
+     *
+     * @param s The string
+     * @return The list of sorting fields
+     */
+    public List<SortModel> parseSort(CharSequence s) {
+        return toSort(split(s, 0, s.length()));
+    }
+
+    private List<String> parseList(CharSequence s, int from, int to) {
+
+        if (needsDecoding(s, from, to)) {
+            String decoded = decode(s, from, to);
+            return split(decoded, 0, decoded.length());
+        }
+        return split(s, from, to);
+    }
+
+    private List<String> split(CharSequence s, int from, int to) {
+
+        List<String> list = new ArrayList<>();
+        for (int i = from; i < to; ) {
+            int end = indexOf(s, ',', i, to);
+            if (end > i) {
+                list.add(intern(s, i, end));
+            }
+            i = end + 1;
+        }
+        return list;
+    }
+
+    private List<SortModel> parseSort(CharSequence s, int from, int to) {
+        return toSort(parseList(s, from, to));
+    }
+
+    private List<SortModel> toSort(List<String> values) {
+
+        List<SortModel> list = new ArrayList<>();
+        for (String v : values) {
+            char c = v.charAt(0);
+            // '+' is ignored or can be absent (it's a space if not escaped)
+            if (c == '+' || c == ' ') {
+                list.add(new SortModel(intern(v, 1, v.length()), SortDirection.ASC));
+            } else if (Character.isLetter(c)) {
+                list.add(new SortModel(v, SortDirection.ASC));
+            } else if (c == '-') {
+                list.add(new SortModel(intern(v, 1, v.length()), SortDirection.DESC));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Parses an integer value without creating a string
+     *
+     * @return The value or null, if the value is not a number
+     */
+    private static Integer parseInt(CharSequence s, int from, int to) {
+
+        boolean negative = from < to && s.charAt(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 9) {
+            return null;
+        }
+        int v = 0;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            v = v * 10 + (c - '0');
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Extracts a name: a known one, if possible, or a new decoded string
+     */
+    private String name(CharSequence s, int from, int to) {
+        return needsDecoding(s, from, to) ? intern(decode(s, from, to), 0, -1) : intern(s, from, to);
+    }
+
+    private static String value(CharSequence s, int from, int to) {
+        return needsDecoding(s, from, to) ? decode(s, from, to) : s.subSequence(from, to).toString();
+    }
+
+    /**
+     * Finds a known name equal to the given range of chars
+     *
+     * @param s    The chars
+     * @param from The start index
+     * @param to   The end index (-1 for the whole string)
+     * @return The found name or a new string
+     */
+    private String intern(CharSequence s, int from, int to) {
+
+        int end = (to < 0) ? s.length() : to;
+        int h = 0;
+        for (int i = from; i < end; i++) {
+            h = 31 * h + s.charAt(i);
+        }
+
+        int mask = names.length - 1;
+        for (int i = h & mask; names[i] != null; i = (i + 1) & mask) {
+            String n = names[i];
+            if (n.length() == end - from && matches(n, s, from)) {
+                return n;
+            }
+        }
+        return (s instanceof String && from == 0 && end == s.length()) ?
+                (String) s : s.subSequence(from, end).toString();
+    }
+
+    private static boolean matches(String n, CharSequence s, int from) {
+        for (int i = 0; i < n.length(); i++) {
+            if (n.charAt(i) != s.charAt(from + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private static boolean needsDecoding(CharSequence s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String decode(CharSequence s, int from, int to) {
+        try {
+            return URLDecoder.decode(s.subSequence(from, to).toString(), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException ex) {
+            return s.subSequence(from, to).toString(); // As is
+        }
+    }
+}
@@ -26,13 +26,66 @@ public enum RawFormatTypes {
     /**
      * JSON representation (default)
      */
-    JSON,
+    JSON("application/json"),
     /**
      * XML representation (supported yet)
      */
-    XML,
+    XML("application/xml", "text/xml"),
+    /**
+     * Binary JSON (Smile), a compact format for service-to-service calls
+     */
+    SMILE("application/x-jackson-smile"),
+    /**
+     * Concise Binary Object Representation (CBOR)
+     */
+    CBOR("application/cbor"),
+    /**
+     * Newline-delimited JSON, used for streamed responses: each item is
+     * written as a separate JSON document on its own line
+     */
+    NDJSON("application/x-ndjson"),
     /**
      * RAW means we should not serialize the result and process it like a string
      */
-    RAW
+    RAW("text/plain");
+
+    /**
+     * The media types of the format (the first one is the main type)
+     */
+    private final String[] mediaTypes;
+
+    RawFormatTypes(String... mediaTypes) {
+        this.mediaTypes = mediaTypes;
+    }
+
+    /**
+     * @return The media type used in 'Content-Type' HTTP headers
+     */
+    public String getMediaType() {
+        return mediaTypes[0];
+    }
+
+    /**
+     * Finds the format by a media type
+     *
+     * @param mediaType The media type (case-insensitive, parameters like
+     *                  'charset' are ignored)
+     * @return The format or null, if it's not supported
+     */
+    public static RawFormatTypes ofMediaType(String mediaType) {
+
+        if (mediaType == null) {
+            return null;
+        }
+        int i = mediaType.indexOf(';');
+        String t = ((i < 0) ? mediaType : mediaType.substring(0, i)).trim();
+        for (RawFormatTypes f : values()) {
+            for (String m : f.mediaTypes) {
+                if (m.equalsIgnoreCase(t)) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
 }
@@ -45,23 +45,34 @@ import ru.anr.base.services.api.APICommandFactory;
 import ru.anr.base.services.api.ApiCommandStrategy;
 import ru.anr.base.services.api.ApiStrategy;
 import ru.anr.base.services.api.ApiUtils;
+import ru.anr.base.services.index.ComponentIndex;
 import ru.anr.base.services.pattern.Strategy;
 import ru.anr.base.services.pattern.StrategyFactory;
 import ru.anr.base.services.pattern.StrategyFactoryImpl;
+import ru.anr.base.services.pattern.StrategyMetrics;
 import ru.anr.base.services.pattern.StrategyStatistic;
+import ru.anr.base.services.serializer.SerializerRegistry;
 import ru.anr.base.services.validation.ValidationFactory;
 import ru.anr.base.services.validation.ValidationUtils;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validator;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * An implementation of {@link BaseService}.
@@ -130,16 +141,153 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
     }
 
     /**
-     * Factories that include some extensions.
+     * Factories that include some extensions. Factories of extension ids and
+     * validated classes are created lazily (exactly once) on the first use.
      */
-    protected final Map<Object, StrategyFactory> extensionFactories = toMap();
+    protected final ConcurrentMap<Object, StrategyFactory> extensionFactories = new ConcurrentHashMap<>();
 
+    /**
+     * Factories being created now. Loading of extensions creates beans, so
+     * it's performed outside of the locks of the maps.
+     */
+    private final ConcurrentMap<Object, ExtensionLoad> extensionLoads = new ConcurrentHashMap<>();
 
+    /**
+     * Registers (or replaces) the extensions with the given id
+     *
+     * @param extId      The extension ID
+     * @param extensions The list of extensions
+     */
     public void registerExtensions(Object extId, List<Strategy<Object>> extensions) {
-        extensionFactories.put(extId, new StrategyFactoryImpl(extensions));
+        extensionFactories.put(extId, newExtensionFactory(extId, extensions));
+    }
+
+    /**
+     * Eagerly loads the extensions marked with {@link ExtensionMarker} for the
+     * given ids, if they are not loaded yet. It allows to avoid loading them
+     * on the first request.
+     *
+     * @param extIds The extension IDs
+     */
+    public void preloadExtensions(String... extIds) {
+        for (String extId : extIds) {
+            extensionFactory(extId, this::loadMarkedExtensions);
+        }
+    }
+
+    /**
+     * Eagerly loads the validators of the given classes, if they are not
+     * loaded yet
+     *
+     * @param classes The classes of validated objects
+     */
+    public void preloadValidators(Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            extensionFactory(clazz, this::loadValidators);
+        }
+    }
+
+    /**
+     * Finds the factory for the given extension id or creates it with the
+     * extensions from the loader. The loader is called once for an id even if
+     * the factory is requested concurrently: other threads wait for it.
+     *
+     * @param extId  The extension ID
+     * @param loader The loader of extensions
+     * @return The factory
+     * @throws IllegalStateException if the loader itself requires the factory
+     *                               of the same id (e.g. a created bean
+     *                               validates an object of the same class)
+     */
+    private StrategyFactory extensionFactory(Object extId, Function<Object, List<Strategy<Object>>> loader) {
+
+        StrategyFactory factory = extensionFactories.get(extId);
+        if (factory != null) {
+            return factory;
+        }
+
+        ExtensionLoad load = new ExtensionLoad(() -> newExtensionFactory(extId, loader.apply(extId)));
+        ExtensionLoad running = extensionLoads.putIfAbsent(extId, load);
+
+        if (running != null) {
+            if (running.owner == Thread.currentThread()) {
+                List<Object> cycle = extensionLoads.entrySet().stream()
+                        .filter(e -> e.getValue().owner == Thread.currentThread())
+                        .map(Map.Entry::getKey).collect(Collectors.toList());
+                throw new IllegalStateException(
+                        "Extensions '" + extId + "' are required by their own loading, being loaded: " + cycle);
+            }
+            return running.join();
+        }
+        try {
+            // Could be loaded by another thread before the registration
+            factory = extensionFactories.get(extId);
+            if (factory == null) {
+                load.task.run();
+                factory = load.join();
+                StrategyFactory registered = extensionFactories.putIfAbsent(extId, factory);
+                factory = (registered == null) ? factory : registered;
+            }
+            return factory;
+        } finally {
+            extensionLoads.remove(extId, load);
+        }
+    }
+
+    private StrategyFactory newExtensionFactory(Object extId, List<Strategy<Object>> extensions) {
         if (notEmpty(extensions)) {
             logger.info("Initializing '{}' {} extensions for {}", extId, extensions.size(), target(this));
         }
+        return new StrategyFactoryImpl(extId, extensions, false, StrategyMetrics.DEFAULT);
+    }
+
+    private List<Strategy<Object>> loadMarkedExtensions(Object extId) {
+        return loadExtensions(ExtensionMarker.class, (String) extId);
+    }
+
+    private List<Strategy<Object>> loadValidators(Object clazz) {
+        return loadValidators((Class<?>) clazz);
+    }
+
+    /**
+     * Loads the validators for the given class
+     *
+     * @param clazz The class of validated objects
+     * @return The list of validators
+     */
+    protected List<Strategy<Object>> loadValidators(Class<?> clazz) {
+        return bean("ValidationFactory", ValidationFactory.class).getValidators(clazz);
+    }
+
+    /**
+     * The loading of extensions by a thread
+     */
+    private static final class ExtensionLoad {
+
+        private final FutureTask<StrategyFactory> task;
+
+        private final Thread owner = Thread.currentThread();
+
+        ExtensionLoad(Callable<StrategyFactory> callable) {
+            this.task = new FutureTask<>(callable);
+        }
+
+        /**
+         * Waits for the result of the loading
+         *
+         * @return The factory
+         */
+        StrategyFactory join() {
+            try {
+                return task.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ApplicationException(ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new ApplicationException(cause);
+            }
+        }
     }
 
     /**
@@ -169,13 +317,11 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
     protected List<Object> processParametrizedExtensions(Object extId, Object object, Object... params) {
 
         // We use lazy loading for extensions
-        if ((extId instanceof String) && !extensionFactories.containsKey(extId)) {
-            registerExtensions(extId, loadExtensions(ExtensionMarker.class, (String) extId));
-        }
+        StrategyFactory factory = (extId instanceof String) ?
+                extensionFactory(extId, this::loadMarkedExtensions) :
+                nullSafe(extId, extensionFactories::get).orElse(null);
 
-        StrategyStatistic stat = extensionFactories.containsKey(extId) ?
-                extensionFactories.get(extId).process(object, params) :
-                null;
+        StrategyStatistic stat = (factory == null) ? null : factory.process(object, params);
 
         if (stat == null) {
             logger.warn("No extensions defined for '{}'", nullSafe(extId));
@@ -315,11 +461,7 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
         Class<?> clazz = (o instanceof BaseEntity) ? EntityUtils.entityClass((BaseEntity) o) : o.getClass();
 
         // Complex validators
-        if (!extensionFactories.containsKey(clazz)) {
-            ValidationFactory factory = bean("ValidationFactory", ValidationFactory.class);
-            registerExtensions(clazz, factory.getValidators(clazz));
-        }
-        processParametrizedExtensions(clazz, o, params);
+        extensionFactory(clazz, this::loadValidators).execute(o, params); // Validators don't collect results
     }
 
     /**
@@ -394,6 +536,16 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
      * @return The list of found extensions
      */
     protected List<Strategy<Object>> loadExtensions(Class<ExtensionMarker> marker, String extensionId) {
+
+        // The build-time index if it's available
+        List<Strategy<Object>> indexed = ComponentIndex.load(ctx.getClassLoader())
+                .beans(ctx, ComponentIndex.Kind.EXTENSION, extensionId, getClazz());
+        if (indexed != null) {
+            indexed.sort(new AnnotationAwareOrderComparator());
+            logger.info("Loaded: {} indexed extensions for the: {}/{}", indexed.size(), extensionId, target(this));
+            return indexed;
+        }
+
         return loadExtensions(s -> {
             ExtensionMarker a = AnnotationUtils.findAnnotation(target(s).getClass(), marker);
             return a != null && safeEquals(extensionId, a.value());
@@ -546,8 +698,59 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
     protected APICommand apiCmd(Class<? extends ApiCommandStrategy> clazz, MethodTypes method, RequestModel request,
                                 Object... contexts) {
 
+        return bean(APICommandFactory.class).process(newApiCmd(clazz, method, request, contexts));
+    }
+
+    /**
+     * Executes an API strategy writing its response to the stream in the
+     * format negotiated with the given 'Accept' value (see
+     * {@link SerializerRegistry#getCompactAccept()} for calls between
+     * services). Binary formats are written as they are, without any text
+     * encoding.
+     *
+     * @param clazz    The strategy command
+     * @param method   The method
+     * @param request  The request model
+     * @param accept   The accepted media types
+     * @param out      The stream to write the response to
+     * @param contexts The command context and parameters
+     * @return The resulted command
+     */
+    protected APICommand apiCmdTo(Class<? extends ApiCommandStrategy> clazz, MethodTypes method,
+                                  RequestModel request, String accept, OutputStream out, Object... contexts) {
+
+        APICommand cmd = newApiCmd(clazz, method, request, contexts).accept(accept);
+        return bean(APICommandFactory.class).process(cmd, null, out);
+    }
+
+    /**
+     * Executes an API strategy asynchronously. This allows to overlap several
+     * internal commands instead of executing them one by one.
+     *
+     * @param clazz    The strategy command
+     * @param method   The method
+     * @param request  The request model
+     * @param contexts The command context and parameters
+     * @return The future of the resulted command
+     */
+    protected CompletableFuture<APICommand> apiCmdAsync(Class<? extends ApiCommandStrategy> clazz, MethodTypes method,
+                                                        RequestModel request, Object... contexts) {
+        return bean(APICommandFactory.class).processAsync(newApiCmd(clazz, method, request, contexts));
+    }
+
+    /**
+     * Builds an API command for the given API strategy.
+     *
+     * @param clazz    The strategy command
+     * @param method   The method
+     * @param request  The request model
+     * @param contexts The command context and parameters
+     * @return The new command
+     */
+    private APICommand newApiCmd(Class<? extends ApiCommandStrategy> clazz, MethodTypes method,
+                                 RequestModel request, Object... contexts) {
+
         ApiStrategy a = ApiUtils.extract(clazz);
-        APICommandFactory factory = bean(APICommandFactory.class);
 
         APICommand cmd = new APICommand(a.id(), a.version()).context(contexts);
         RequestModel rq = nullSafeOp(request).orElse(new RequestModel());
@@ -555,7 +758,7 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
         cmd.setType(method);
         cmd.setRequest(rq);
 
-        return factory.process(cmd);
+        return cmd;
     }
 
     /**
@@ -573,6 +776,22 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
         return apiCmd(clazz, method, request, contexts).getResponse();
     }
 
+    /**
+     * Executes an API strategy asynchronously with returning the response
+     * value only.
+     *
+     * @param clazz    The strategy command
+     * @param method   The method
+     * @param request  The request model
+     * @param contexts The command context and parameters
+     * @param <S>      The resulted value type
+     * @return The future of the response value
+     */
+    protected <S> CompletableFuture<S> apiAsync(Class<? extends ApiCommandStrategy> clazz, MethodTypes method,
+                                         RequestModel request, Object... contexts) {
+        return apiCmdAsync(clazz, method, request, contexts).thenApply(cmd -> cmd.<S>getResponse());
+    }
+
     /**
      * Checks the given value is a positive number.
      *
@@ -697,6 +916,30 @@ public class BaseServiceImpl extends BaseSpringParent implements BaseService {
         return toModel(pages, modelClass, objectClass, null);
     }
 
+    /**
+     * Converts the given stream of objects to a stream of models lazily. Such a
+     * stream can be returned by an API strategy to write large results item by
+     * item without keeping them in memory.
+     * <p>
+     * A stream of a repository is valid inside its transaction only, but it's
+     * consumed after the strategy returns. So for such a stream the whole
+     * processing of the command (including serialization) must be called
+     * inside a {@code @Transactional(readOnly = true)} method, which the
+     * strategy's transaction joins. Nothing is checked here: a stream over
+     * data already in memory needs no transaction.
+     *
+     * @param items       The stream of objects
+     * @param modelClass  The class of models
+     * @param objectClass The class of objects
+     * @param <S>         The type of models
+     * @param <T>         The type of objects
+     * @return The stream of models
+     */
+    protected static <S extends ResponseModel, T> Stream<S> toModel(Stream<T> items, Class<S> modelClass,
+                                                                  Class<T> objectClass) {
+        return items.map(o -> inst(modelClass, new Class<?>[]{objectClass}, o));
+    }
+
     ///////////////////////////////////////////////////////////////////////////
     ///// getters/setters
     ///////////////////////////////////////////////////////////////////////////
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.context.i18n.LocaleContext;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * The thread-bound context of the calling thread (the security context, the
+ * locale and the logging MDC) which is captured on creation and applied to
+ * another thread executing a task on behalf of the caller.
+ *
+ * @created Oct 18, 2026
+ */
+public final class CallerContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallerContext.class);
+
+    private final SecurityContext security = SecurityContextHolder.getContext();
+
+    private final LocaleContext locale = LocaleContextHolder.getLocaleContext();
+
+    private final Map<String, String> mdc = MDC.getCopyOfContextMap();
+
+    /**
+     * Executes the callback with the captured context and restores the context
+     * of the current thread afterwards (the callback may be run by the calling
+     * thread itself).
+     *
+     * @param callback The callback
+     * @param <S>      The type of the result
+     * @return The callback's result
+     */
+    public <S> S run(Supplier<S> callback) {
+
+        SecurityContext previousSecurity = SecurityContextHolder.getContext();
+        LocaleContext previousLocale = LocaleContextHolder.getLocaleContext();
+        Map<String, String> previousMdc = MDC.getCopyOfContextMap();
+        try {
+            SecurityContextHolder.setContext(security);
+            LocaleContextHolder.setLocaleContext(locale);
+            setMdc(mdc);
+
+            return callback.get();
+        } finally {
+            setMdc(previousMdc);
+            LocaleContextHolder.setLocaleContext(previousLocale);
+            SecurityContextHolder.setContext(previousSecurity);
+        }
+    }
+
+    private static void setMdc(Map<String, String> map) {
+        if (map == null) {
+            MDC.clear();
+        } else {
+            MDC.setContextMap(map);
+        }
+    }
+
+    /**
+     * Creates an executor starting a new virtual thread for each task. The
+     * method is resolved at runtime as virtual threads are not available in
+     * all supported JDKs.
+     *
+     * @return The executor or null, if virtual threads are not supported
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            logger.info("Virtual threads are not supported by the runtime");
+            return null;
+        }
+    }
+}
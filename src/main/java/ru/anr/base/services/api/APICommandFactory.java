@@ -15,8 +15,23 @@
  */
 package ru.anr.base.services.api;
 
+import ru.anr.base.ApplicationException;
 import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.ContentEncoding;
+import ru.anr.base.domain.api.MethodTypes;
 import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.CallerContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * An interface for the command factory. Provides general functions to handle
@@ -38,6 +53,135 @@ public interface APICommandFactory {
      */
     APICommand process(APICommand cmd);
 
+    /**
+     * Processes the given API Command reading the raw request model directly
+     * from the given stream and writing the serialized response to the output
+     * stream. Unlike {@link #process(APICommand)}, no intermediate strings are
+     * built, and the raw model of the command is not set. The streams are not
+     * closed. The streams are decompressed/compressed according to the
+     * request/response encodings of the command. Errors are processed in the
+     * usual way with {@link #error(APICommand, Throwable)}.
+     *
+     * @param cmd The API Command
+     * @param in  The stream with the raw request model (can be null if the
+     *            request has no body)
+     * @param out The stream to write the response to
+     * @return The resulted API Command
+     * @throws UnsupportedOperationException if the streams are compressed, but
+     *                                       the factory doesn't support it
+     */
+    default APICommand process(APICommand cmd, InputStream in, OutputStream out) {
+
+        // By default, the raw models are passed as strings
+        if (cmd.getRequestEncoding() != ContentEncoding.IDENTITY
+                || cmd.getResponseEncoding() != ContentEncoding.IDENTITY) {
+            throw new UnsupportedOperationException("Compressed streams are not supported by " + getClass().getName());
+        }
+        try {
+            if (in != null) {
+                cmd.addRaw(new String(in.readAllBytes(), UTF_8));
+            }
+            APICommand rs = process(cmd);
+            if (rs.getRawModel() != null) {
+                out.write(rs.getRawModel().getBytes(UTF_8));
+            }
+            return rs;
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Processes the given API Command like
+     * {@link #process(APICommand, InputStream, OutputStream)}, but without
+     * waiting for items of a reactive response. The strategy is invoked in the
+     * calling thread. If it returns a {@link java.util.concurrent.Flow.Publisher},
+     * the items are serialized to the stream as they arrive, with
+     * backpressure, by the threads of the publisher, and the future is
+     * completed after the last item (or on an error or the deadline of the
+     * command). Responses of other strategies are written before the method
+     * returns.
+     *
+     * @param cmd The API Command
+     * @param in  The stream with the raw request model (can be null if the
+     *            request has no body)
+     * @param out The stream to write the response to
+     * @return The future of the resulted API Command
+     */
+    default CompletableFuture<APICommand> processReactive(APICommand cmd, InputStream in, OutputStream out) {
+        // By default, everything is written before the method returns
+        try {
+            return CompletableFuture.completedFuture(process(cmd, in, out));
+        } catch (RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+    }
+
+    /**
+     * Processes the given API Command asynchronously (with virtual threads if
+     * they are supported). The security context, the locale and the logging
+     * MDC of the calling thread are used for the processing. If an exception
+     * occurs, the future is completed exceptionally, and
+     * {@link #error(APICommand, Throwable)} can be used to get a valid error
+     * response.
+     *
+     * @param cmd The API Command
+     * @return The future of the resulted API Command
+     */
+    default CompletableFuture<APICommand> processAsync(APICommand cmd) {
+        CallerContext context = new CallerContext();
+        return CompletableFuture.supplyAsync(() -> context.run(() -> process(cmd)));
+    }
+
+    /**
+     * Processes the given list of independent API Commands concurrently. An
+     * error in one command does not affect the others: the failed command
+     * gets an error response built with {@link #error(APICommand, Throwable)}.
+     *
+     * @param commands The API Commands
+     * @return The resulted API Commands in the same order
+     */
+    default List<APICommand> batch(List<APICommand> commands) {
+        // By default, the commands are processed one by one
+        return commands.stream().map(cmd -> {
+            try {
+                return process(cmd);
+            } catch (RuntimeException ex) {
+                return error(cmd, ex);
+            }
+        }).collect(Collectors.toList());
+    }
+
+    /**
+     * Processes the given list of API Commands one by one inside a single
+     * shared transaction. Unlike {@link #batch(List)}, it's all or nothing:
+     * the first failed command rolls back the whole transaction and its
+     * exception is thrown to the caller.
+     *
+     * @param commands The API Commands
+     * @return The resulted API Commands in the same order
+     * @throws UnsupportedOperationException if the factory can't share a
+     *                                       transaction between commands
+     */
+    default List<APICommand> batchInTransaction(List<APICommand> commands) {
+        throw new UnsupportedOperationException("Transactional batches are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns the methods implemented by the given command. The result can be
+     * used for an OPTIONS response (the 'Allow' header). Other methods are
+     * rejected with the {@link ru.anr.base.domain.api.APIException#ERROR_METHOD_NOT_SUPPORTED}
+     * code.
+     *
+     * @param commandId The identifier of the command
+     * @param version   The version of the command
+     * @return The set of methods (all methods, if the factory doesn't know
+     * them)
+     */
+    default Set<MethodTypes> allowedMethods(String commandId, String version) {
+        return EnumSet.allOf(MethodTypes.class);
+    }
+
     /**
      * A special entry point for handling errors. It generates a proper API error
      * response.
@@ -15,30 +15,75 @@
  */
 package ru.anr.base.services.api;
 
+import com.fasterxml.jackson.databind.SequenceWriter;
+import org.apache.commons.io.output.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Import;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.Assert;
 import org.springframework.web.util.UriUtils;
 import ru.anr.base.ApplicationException;
+import ru.anr.base.dao.QueryDeadline;
 import ru.anr.base.domain.api.APICommand;
 import ru.anr.base.domain.api.APIException;
+import ru.anr.base.domain.api.MethodTypes;
 import ru.anr.base.domain.api.RawFormatTypes;
 import ru.anr.base.domain.api.models.RequestModel;
 import ru.anr.base.domain.api.models.ResponseModel;
 import ru.anr.base.services.BaseServiceImpl;
+import ru.anr.base.services.CallerContext;
+import ru.anr.base.services.api.metrics.ApiMetrics;
+import ru.anr.base.services.api.metrics.ApiMetricsRegistry;
 import ru.anr.base.services.serializer.SerializationConfig;
 import ru.anr.base.services.serializer.Serializer;
+import ru.anr.base.services.serializer.SerializerRegistry;
 
+import javax.annotation.PreDestroy;
 import javax.validation.ConstraintViolation;
 import javax.validation.ConstraintViolationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -50,29 +95,115 @@ import static java.nio.charset.StandardCharsets.UTF_8;
  * @created Nov 10, 2014
  */
 @Import(SerializationConfig.class)
-public class APICommandFactoryImpl extends BaseServiceImpl implements APICommandFactory {
+public class APICommandFactoryImpl extends BaseServiceImpl
+        implements APICommandFactory, ApplicationListener<ContextRefreshedEvent> {
 
     private static final Logger logger = LoggerFactory.getLogger(APICommandFactoryImpl.class);
 
     /**
-     * The registry of API Commands. The map's keys are command identifiers, and the second key is
-     * a version of the command.
+     * The maximum number of unknown command keys remembered by the negative
+     * cache. When the limit is reached, the context is not rescanned for other
+     * unknown commands until new commands are registered, so random command
+     * identifiers can't cause rescans or exhaust the memory.
      */
-    private final Map<String, Map<String, ApiCommandStrategy>> commands = new HashMap<>();
+    private static final int MAX_UNKNOWN_COMMANDS = 1024;
 
     /**
-     * JSON Serialization
+     * The current immutable routing snapshot. It is rebuilt and swapped as a
+     * whole, so readers never need a lock.
      */
-    @Autowired
-    @Qualifier("jsonSerializer")
-    private Serializer json;
+    private volatile ApiRoutes routes = new ApiRoutes(new HashMap<>(), new HashMap<>(), ApiMetrics.NONE, null);
+
+    /**
+     * The negative cache: route keys of commands which were not found even
+     * after a full rescan of the context.
+     */
+    private final Set<String> unknownCommands = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Marks threads which process commands on behalf of another thread (for
+     * batches and asynchronous commands)
+     */
+    private static final ThreadLocal<Boolean> IN_BATCH = new ThreadLocal<>();
+
+    /**
+     * The executor for concurrent processing of batches
+     */
+    private volatile ExecutorService batchExecutor;
+
+    /**
+     * True, if the batch executor was created by the factory itself
+     */
+    private boolean ownBatchExecutor;
+
+    /**
+     * The executor for asynchronous commands
+     */
+    private volatile ExecutorService asyncExecutor;
+
+    /**
+     * True, if the async executor was created by the factory itself
+     */
+    private boolean ownAsyncExecutor;
+
+    /**
+     * The number of threads of the default batch executor
+     */
+    private int batchThreads = Runtime.getRuntime().availableProcessors();
 
     /**
-     * XML Serialization
+     * GET commands which are being processed now (for commands with coalescing)
+     */
+    private final Map<ApiResponseCache.ResponseKey, CompletableFuture<ApiResponseCache.CachedResponse>> inFlight =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Configured limits of commands by 'id:version' or 'id' keys (lower-cased)
+     */
+    private Map<String, ApiLimits> limits = new HashMap<>();
+
+    /**
+     * Metrics of processed commands
+     */
+    private ApiMetrics metrics = new ApiMetricsRegistry();
+
+    /**
+     * The maximum number of items requested at once from publishers
+     */
+    private int publisherPrefetch = 32;
+
+    /**
+     * The maximum size of a decompressed request in bytes
+     */
+    private long maxRequestSize = 16L * 1024 * 1024;
+
+    /**
+     * The store of responses of POST/PUT commands with idempotency keys
+     */
+    private ApiIdempotencyStore idempotencyStore = new InMemoryIdempotencyStore(10_000, 86_400L);
+
+    /**
+     * Commands with idempotency keys which are being executed now
+     */
+    private final Map<String, CompletableFuture<IdempotentResponse>> idempotentInFlight = new ConcurrentHashMap<>();
+
+    /**
+     * The cache of responses for GET commands with cacheable responses
+     */
+    private ApiResponseCache responseCache = new ApiResponseCache(1000);
+
+    /**
+     * Resolved messages of error codes by locales (empty for codes without
+     * messages)
+     */
+    private final Map<Locale, Map<Integer, Optional<String>>> errorMessages = new ConcurrentHashMap<>();
+
+    /**
+     * Serializers for all supported formats
      */
     @Autowired
-    @Qualifier("xmlSerializer")
-    private Serializer xml;
+    @Qualifier("serializerRegistry")
+    private SerializerRegistry serializers;
 
     /**
      * Error prefix for specific error code description, which is stored in text
@@ -81,69 +212,890 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
     private String errorCodePrefix = "api.errorcode.";
 
     /**
-     * Registration of API commands found in the spring context
+     * Rebuilds the routing table from scratch when the context is refreshed.
+     * Refreshes of other (e.g. child) contexts are ignored.
+     *
+     * @param event The event
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+
+        if (event.getApplicationContext() != ctx) {
+            return;
+        }
+        synchronized (this) {
+            this.responseCache.clear();
+            this.errorMessages.clear();
+            registerApi(new HashMap<>(), ctx.getBeansOfType(ApiCommandStrategy.class));
+        }
+    }
+
+    /**
+     * Registration of API commands found in the spring context. The found
+     * commands are merged with the current ones, and the new routing
+     * snapshot replaces the old one atomically.
      *
      * @param beans API Strategies beans
      */
     public void registerApi(Map<String, ApiCommandStrategy> beans) {
+        synchronized (this) {
+            registerApi(routes.copyCommands(), beans);
+        }
+    }
+
+    /**
+     * Registers API commands in addition to the given ones
+     *
+     * @param commands The commands to start with (modified)
+     * @param beans    API Strategies beans
+     */
+    private void registerApi(Map<String, Map<String, ApiCommandStrategy>> commands,
+                             Map<String, ApiCommandStrategy> beans) {
 
         synchronized (this) {
 
             logger.info("Registering '{}' api command beans", beans.size());
 
+            boolean changed = false;
             for (Entry<String, ApiCommandStrategy> e : beans.entrySet()) {
                 ApiStrategy a = e.getValue().config();
                 if (a != null) {
-                    register(a, e.getValue());
+                    changed |= register(commands, a, e.getValue());
                 }
             }
+            this.routes = new ApiRoutes(commands, limits, metrics, routes);
+            if (changed) {
+                // Some of the unknown commands may exist now
+                this.unknownCommands.clear();
+            }
+
             logger.debug("API Command registry: {}", commands);
         }
     }
 
     /**
-     * Registers a found api command strategy
-     *
-     * @param a The strategy configuration
-     * @param s The API strategy bean
+     * Registers a found api command strategy
+     *
+     * @param commands The registry to update
+     * @param a        The strategy configuration
+     * @param s        The API strategy bean
+     * @return true, if the strategy was not registered before
+     */
+    private boolean register(Map<String, Map<String, ApiCommandStrategy>> commands, ApiStrategy a,
+                             ApiCommandStrategy s) {
+
+        String aId = a.id().toLowerCase();
+        String aV = a.version().toLowerCase();
+
+        Map<String, ApiCommandStrategy> versions = commands.computeIfAbsent(aId, k -> new HashMap<>());
+
+        if (versions.containsKey(aV) && versions.get(aV) != s) {
+            logger.warn("Duplicate version " + aV + " for " + aId + ", ignore it.");
+        }
+        // Allow to override
+        return versions.put(aV, s) != s;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public APICommand process(APICommand cmd) {
+
+        negotiate(cmd);
+        ApiCommandStrategy s = findStrategy(cmd);
+        ApiStrategy a = s.config();
+
+        if (!routes.methods(s).contains(cmd.getType())) {
+            return rejectMethod(a, cmd, null);
+        }
+
+        ApiMetrics.Recorder m = routes.recorder(s, cmd.getType());
+        long started = System.nanoTime();
+        if (cmd.getRawModel() != null) {
+            m.payload(ApiMetrics.Direction.REQUEST, cmd.getRawModel().length());
+        }
+        try {
+            String idempotencyKey = idempotencyKey(cmd);
+            if (cmd.getType() == MethodTypes.Get && (a.cacheSeconds() > 0 || a.coalesce())) {
+                processShared(s, a, cmd, true);
+            } else if (idempotencyKey != null) {
+                processIdempotent(idempotencyKey, s, a, cmd);
+            } else {
+                processPhases(s, a, cmd);
+            }
+        } catch (RuntimeException ex) {
+            m.error(resolveErrorCode(new ApplicationException(ex).getMostSpecificCause()));
+            throw ex;
+        } finally {
+            m.latency(ApiMetrics.Phase.TOTAL, System.nanoTime() - started);
+        }
+
+        if (cmd.getRawModel() != null) {
+            m.payload(ApiMetrics.Direction.RESPONSE, cmd.getRawModel().length());
+        }
+        return cmd;
+    }
+
+    /**
+     * Parses the request, invokes the strategy and serializes the response
+     * measuring the duration of each phase. The execution is rejected if it
+     * exceeds the limits of the command.
+     *
+     * @param s   Found strategy
+     * @param a   The strategy configuration
+     * @param cmd The command
+     */
+    private void processPhases(ApiCommandStrategy s, ApiStrategy a, APICommand cmd) {
+
+        ApiThrottle throttle = routes.throttle(s);
+        throttle.acquire(a);
+        try {
+            ApiMetrics.Recorder m = routes.recorder(s, cmd.getType());
+            long t = System.nanoTime();
+            processRequestModel(cmd, a);
+            t = measured(m, ApiMetrics.Phase.PARSE, t);
+
+            cmd.setResponse(doInvoke(s, cmd));
+            t = measured(m, ApiMetrics.Phase.INVOKE, t);
+
+            processResponseModel(cmd, requestedFields(cmd));
+            measured(m, ApiMetrics.Phase.SERIALIZE, t);
+        } finally {
+            throttle.release();
+        }
+    }
+
+    /**
+     * Records the duration of the finished phase
+     *
+     * @param m       The metrics of the command
+     * @param phase   The phase
+     * @param started The start time of the phase (nanoseconds)
+     * @return The current time which is the start of the next phase
+     */
+    private static long measured(ApiMetrics.Recorder m, ApiMetrics.Phase phase, long started) {
+        long now = System.nanoTime();
+        m.latency(phase, now - started);
+        return now;
+    }
+
+    /**
+     * Processes a GET command whose response can be shared between commands.
+     * The serialized response is taken from the cache if it's present there.
+     * Otherwise, the command is processed, or if the same command is being
+     * processed by another thread, the response of that thread is used. A
+     * command which gets a shared response gets its own copy of the model
+     * restored from the serialized response, so the model can't be changed
+     * by other commands. The command gets the ETag of the response and the
+     * 'not modified' flag if the client already has the same response.
+     *
+     * @param s            Found strategy
+     * @param a            The strategy configuration
+     * @param cmd          The command
+     * @param withResponse true, if the command needs the response model (not
+     *                     only the serialized one)
+     * @return The shared response
+     */
+    private ApiResponseCache.CachedResponse processShared(ApiCommandStrategy s, ApiStrategy a, APICommand cmd,
+                                                          boolean withResponse) {
+
+        ApiResponseCache.ResponseKey key = new ApiResponseCache.ResponseKey(cmd);
+        ApiResponseCache.CachedResponse r = (a.cacheSeconds() > 0) ? responseCache.get(key) : null;
+
+        if (r == null) {
+            r = a.coalesce() ? processCoalesced(key, s, a, cmd) : processForSharing(key, s, a, cmd);
+        } else {
+            logger.trace("Cached response is used for {}", cmd);
+        }
+
+        if (cmd.getResponse() == null) {
+            // The response was built for another command
+            cmd.setResponse(withResponse ? copyResponse(r) : null);
+            cmd.setRawModel(r.getRawModel());
+        }
+        cmd.setEtag(r.getEtag());
+        cmd.setNotModified(r.getEtag().equals(cmd.getIfNoneMatch()));
+        return r;
+    }
+
+    /**
+     * Restores a copy of the shared response model from its serialized form
+     *
+     * @param r The shared response
+     * @return The copy or null, if the response can't be restored (e.g. it's
+     * a collection of items or a raw response)
+     */
+    private Object copyResponse(ApiResponseCache.CachedResponse r) {
+        Serializer serializer = (r.getType() == null) ? null : getSerializer(r.getFormat());
+        return (serializer == null) ? null : serializer.fromStr(r.getRawModel(), r.getType());
+    }
+
+    /**
+     * Processes the command once for all concurrent identical commands: the
+     * first thread processes the command, and the others wait for its result.
+     *
+     * @param key The key of the command
+     * @param s   Found strategy
+     * @param a   The strategy configuration
+     * @param cmd The command
+     * @return The shared response
+     */
+    private ApiResponseCache.CachedResponse processCoalesced(ApiResponseCache.ResponseKey key, ApiCommandStrategy s,
+                                                             ApiStrategy a, APICommand cmd) {
+
+        CompletableFuture<ApiResponseCache.CachedResponse> own = new CompletableFuture<>();
+        CompletableFuture<ApiResponseCache.CachedResponse> running = inFlight.putIfAbsent(key, own);
+
+        if (running != null) {
+            logger.trace("Waiting for the same command in progress: {}", cmd);
+            return join(running, cmd);
+        }
+
+        try {
+            ApiResponseCache.CachedResponse r = processForSharing(key, s, a, cmd);
+            own.complete(r);
+            return r;
+        } catch (RuntimeException ex) {
+            own.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, own);
+        }
+    }
+
+    /**
+     * Waits for the result of the same command executed by another thread,
+     * but not longer than the deadline of the command. The other thread
+     * continues its work anyway.
+     *
+     * @param running The future of the command in progress
+     * @param cmd     The command
+     * @param <T>     The type of the result
+     * @return The result
+     */
+    private static <T> T join(CompletableFuture<T> running, APICommand cmd) {
+        try {
+            return (cmd.getDeadline() == null) ? running.join() :
+                    running.get(Math.max(cmd.remainingMillis(), 0L), TimeUnit.MILLISECONDS);
+        } catch (CompletionException | ExecutionException ex) {
+            throw (ex.getCause() instanceof RuntimeException) ?
+                    (RuntimeException) ex.getCause() : new ApplicationException(ex.getCause());
+        } catch (TimeoutException ex) {
+            throw deadlineExceeded(cmd);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * @return The number of commands waiting for identical commands in
+     * progress (an estimate for monitoring and tests)
+     */
+    int getCoalescedWaiting() {
+        return inFlight.values().stream().mapToInt(CompletableFuture::getNumberOfDependents).sum();
+    }
+
+    /**
+     * Extracts the idempotency key of a POST/PUT command
+     *
+     * @param cmd The command
+     * @return The key or null, if the command has no key or it's not a
+     * POST/PUT command
+     */
+    private static String idempotencyKey(APICommand cmd) {
+        Object key = cmd.getContexts().get(APICommand.IDEMPOTENCY_KEY);
+        return (key != null && (cmd.getType() == MethodTypes.Post || cmd.getType() == MethodTypes.Put)) ?
+                key.toString() : null;
+    }
+
+    /**
+     * Builds the key of the store: the idempotency key of the client scoped by
+     * the name of the current principal and the command
+     *
+     * @param a   The strategy configuration
+     * @param key The idempotency key of the client
+     * @return The scoped key
+     */
+    private static String scopedKey(ApiStrategy a, String key) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        String principal = (auth == null) ? "" : auth.getName();
+        return principal + '\n' + a.id().toLowerCase() + '\n' + a.version().toLowerCase() + '\n' + key;
+    }
+
+    /**
+     * Processes a POST/PUT command with an idempotency key. If the command
+     * with the key has been already executed, its stored response is
+     * returned. If it's being executed by another thread now, the response
+     * of that thread is used. Otherwise, the command is executed, and its
+     * response is stored if the execution succeeds. Keys are scoped by the
+     * current principal and the command, so a key of one user can never
+     * replay the response to another one.
+     *
+     * @param clientKey The idempotency key given by the client
+     * @param s         Found strategy
+     * @param a         The strategy configuration
+     * @param cmd       The command
+     */
+    private void processIdempotent(String clientKey, ApiCommandStrategy s, ApiStrategy a, APICommand cmd) {
+
+        String key = scopedKey(a, clientKey);
+        String fingerprint = IdempotentResponse.fingerprint(cmd);
+        IdempotentResponse r = idempotencyStore.find(key);
+
+        if (r == null) {
+            CompletableFuture<IdempotentResponse> own = new CompletableFuture<>();
+            CompletableFuture<IdempotentResponse> running = idempotentInFlight.putIfAbsent(key, own);
+
+            if (running == null) {
+                try {
+                    processPhases(s, a, cmd);
+                    r = new IdempotentResponse(a.id(), a.version(), cmd.getType(), cmd.getResponseFormat(),
+                            fingerprint, cmd.getRawModel(), cmd.getResponse(), System.currentTimeMillis());
+                    idempotencyStore.store(key, r);
+                    own.complete(r);
+                    return;
+                } catch (RuntimeException ex) {
+                    own.completeExceptionally(ex);
+                    throw ex;
+                } finally {
+                    idempotentInFlight.remove(key, own);
+                }
+            }
+            logger.trace("Waiting for the command with the same idempotency key: {}", cmd);
+            r = join(running, cmd);
+        }
+
+        if (!r.matches(cmd, fingerprint)) {
+            throw APIException.withCode("The idempotency key '" + clientKey + "' was used for another request",
+                    APIException.ERROR_CLIENT);
+        }
+        logger.debug("Stored response is returned for {} with the idempotency key '{}'", cmd, clientKey);
+        cmd.setResponse(r.getResponse());
+        cmd.setRawModel(r.getRawModel());
+    }
+
+    /**
+     * Processes the command and stores its response in the cache if it's
+     * required.
+     *
+     * @param key The key of the command
+     * @param s   Found strategy
+     * @param a   The strategy configuration
+     * @param cmd The command
+     * @return The response to share
+     */
+    private ApiResponseCache.CachedResponse processForSharing(ApiResponseCache.ResponseKey key, ApiCommandStrategy s,
+                                                              ApiStrategy a, APICommand cmd) {
+
+        processPhases(s, a, cmd);
+
+        byte[] body = responseBytes(cmd);
+        return (a.cacheSeconds() > 0) ? responseCache.put(key, cmd, body, a.cacheSeconds()) :
+                new ApiResponseCache.CachedResponse(cmd, body, 0L);
+    }
+
+    /**
+     * Returns the bytes of the serialized response which are the same as the
+     * ones written to a stream by the serializer of the response format
+     *
+     * @param cmd The processed command
+     * @return The bytes
+     */
+    private byte[] responseBytes(APICommand cmd) {
+        String raw = String.valueOf(cmd.getRawModel());
+        Serializer serializer = getSerializer(cmd.getResponseFormat());
+        return (serializer == null) ? raw.getBytes(UTF_8) : serializer.strToBytes(raw);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public APICommand process(APICommand cmd, InputStream in, OutputStream out) {
+        return join(processReactive(cmd, in, out), cmd);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<APICommand> processReactive(APICommand cmd, InputStream in, OutputStream out) {
+
+        ApiCommandStrategy s;
+        ApiStrategy a;
+        try {
+            negotiate(cmd);
+            s = findStrategy(cmd);
+            a = s.config();
+
+            if (!routes.methods(s).contains(cmd.getType())) {
+                return CompletableFuture.completedFuture(rejectMethod(a, cmd, out));
+            }
+            if (in == null && cmd.getType() == MethodTypes.Get && (a.cacheSeconds() > 0 || a.coalesce())) {
+                return CompletableFuture.completedFuture(writeShared(s, a, cmd, out));
+            }
+            String idempotencyKey = idempotencyKey(cmd);
+            if (idempotencyKey != null) {
+                return CompletableFuture.completedFuture(writeIdempotent(idempotencyKey, s, a, cmd, in, out));
+            }
+        } catch (RuntimeException ex) {
+            return failed(ex);
+        }
+
+        ApiMetrics.Recorder m = routes.recorder(s, cmd.getType());
+        long started = System.nanoTime();
+        ApiThrottle throttle = routes.throttle(s);
+        try {
+            throttle.acquire(a);
+        } catch (APIException ex) {
+            m.error(ex.getErrorCode());
+            return failed(ex);
+        }
+
+        CountingOutputStream counted = new CountingOutputStream(out);
+        CompletableFuture<Void> written;
+        try {
+            long t = started;
+            if (in != null) {
+                parseRequestModel(cmd, serializer -> ApiCompression.read(cmd.getRequestEncoding(), in,
+                        maxRequestSize, stream -> serializer.fromStream(stream, a.model())));
+                t = measured(m, ApiMetrics.Phase.PARSE, t);
+            } else {
+                logger.trace("Request stream is null for {}", cmd);
+            }
+
+            cmd.setResponse(doInvoke(s, cmd));
+            t = measured(m, ApiMetrics.Phase.INVOKE, t);
+
+            OutputStream target = ApiCompression.open(cmd.getResponseEncoding(), counted);
+            Serializer serializer = getSerializer(cmd.getResponseFormat());
+
+            if (cmd.getResponse() instanceof Flow.Publisher && serializer != null) {
+                // The items are written by the threads of the publisher
+                CompletableFuture<Void> items = writePublisher((Flow.Publisher<?>) cmd.getResponse(), serializer,
+                        target, requestedFields(cmd), cmd.getResponseFormat() == RawFormatTypes.NDJSON);
+                if (cmd.getDeadline() != null) {
+                    items.orTimeout(Math.max(cmd.remainingMillis(), 0L), TimeUnit.MILLISECONDS);
+                }
+                long invoked = t;
+                written = items.thenRun(() -> {
+                    close(target);
+                    measured(m, ApiMetrics.Phase.SERIALIZE, invoked);
+                });
+            } else {
+                writeResponseModel(cmd, target, requestedFields(cmd));
+                close(target);
+                measured(m, ApiMetrics.Phase.SERIALIZE, t);
+                written = CompletableFuture.completedFuture(null);
+            }
+        } catch (RuntimeException ex) {
+            written = failed(ex);
+        }
+
+        return written.handle((r, ex) -> {
+
+            throttle.release();
+            m.latency(ApiMetrics.Phase.TOTAL, System.nanoTime() - started);
+
+            if (ex == null) {
+                m.payload(ApiMetrics.Direction.RESPONSE, counted.getByteCount());
+                return cmd;
+            }
+
+            Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+            if (cause instanceof TimeoutException) {
+                cause = deadlineExceeded(cmd);
+            }
+            m.error(resolveErrorCode(new ApplicationException(cause).getMostSpecificCause()));
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new ApplicationException(cause);
+        });
+    }
+
+    private static <T> CompletableFuture<T> failed(Throwable ex) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(ex);
+        return f;
+    }
+
+    private static void close(OutputStream out) {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Writes the response of a GET command with a cacheable or coalesced
+     * response to the stream. The response is taken from the cache or from an
+     * identical command being processed now (or is processed and cached), and
+     * the compressed bytes of a cached response are cached as well. Nothing
+     * is written if the client already has the same response.
+     *
+     * @param s   Found strategy
+     * @param a   The strategy configuration
+     * @param cmd The command
+     * @param out The stream to write the response to
+     * @return The resulted command
+     */
+    private APICommand writeShared(ApiCommandStrategy s, ApiStrategy a, APICommand cmd, OutputStream out) {
+
+        ApiMetrics.Recorder m = routes.recorder(s, cmd.getType());
+        long started = System.nanoTime();
+        try {
+            ApiResponseCache.CachedResponse r = processShared(s, a, cmd, false);
+            if (!cmd.isNotModified()) {
+                byte[] bytes = r.getEncoded(cmd.getResponseEncoding());
+                out.write(bytes);
+                m.payload(ApiMetrics.Direction.RESPONSE, bytes.length);
+            }
+        } catch (IOException ex) {
+            m.error(APIException.ERROR_SYSTEM);
+            throw new ApplicationException(ex);
+        } catch (RuntimeException ex) {
+            m.error(resolveErrorCode(new ApplicationException(ex).getMostSpecificCause()));
+            throw ex;
+        } finally {
+            m.latency(ApiMetrics.Phase.TOTAL, System.nanoTime() - started);
+        }
+        return cmd;
+    }
+
+    /**
+     * Processes a POST/PUT command with an idempotency key reading its request
+     * from the stream and writing its response to the other one. The request
+     * is read as a whole to take its fingerprint, and the response is
+     * serialized as a whole to be stored (see
+     * {@link #processIdempotent(String, ApiCommandStrategy, ApiStrategy, APICommand)}).
+     *
+     * @param clientKey The idempotency key given by the client
+     * @param s         Found strategy
+     * @param a         The strategy configuration
+     * @param cmd       The command
+     * @param in        The stream to read the request from (can be null)
+     * @param out       The stream to write the response to
+     * @return The resulted command
+     */
+    private APICommand writeIdempotent(String clientKey, ApiCommandStrategy s, ApiStrategy a, APICommand cmd,
+                                       InputStream in, OutputStream out) {
+
+        ApiMetrics.Recorder m = routes.recorder(s, cmd.getType());
+        long started = System.nanoTime();
+        try {
+            if (in != null) {
+                byte[] request = ApiCompression.read(cmd.getRequestEncoding(), in, maxRequestSize,
+                        APICommandFactoryImpl::readAll);
+                Serializer serializer = getSerializer(cmd.getRequestFormat());
+                cmd.setRawModel((serializer == null) ? new String(request, UTF_8) : serializer.bytesToStr(request));
+                m.payload(ApiMetrics.Direction.REQUEST, request.length);
+            }
+
+            processIdempotent(clientKey, s, a, cmd);
+
+            CountingOutputStream counted = new CountingOutputStream(out);
+            byte[] response = responseBytes(cmd);
+            ApiCompression.write(cmd.getResponseEncoding(), counted, z -> {
+                try {
+                    z.write(response);
+                } catch (IOException ex) {
+                    throw new ApplicationException(ex);
+                }
+            });
+            m.payload(ApiMetrics.Direction.RESPONSE, counted.getByteCount());
+        } catch (RuntimeException ex) {
+            m.error(resolveErrorCode(new ApplicationException(ex).getMostSpecificCause()));
+            throw ex;
+        } finally {
+            m.latency(ApiMetrics.Phase.TOTAL, System.nanoTime() - started);
+        }
+        return cmd;
+    }
+
+    private static byte[] readAll(InputStream in) {
+        try {
+            return in.readAllBytes();
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Builds the error response for a method which is not implemented by the
+     * strategy. It's an expected situation, so no exceptions are thrown.
+     *
+     * @param a   The strategy configuration
+     * @param cmd The command
+     * @param out The output stream to write the response (can be null)
+     * @return The command with the error response
+     */
+    private APICommand rejectMethod(ApiStrategy a, APICommand cmd, OutputStream out) {
+
+        logger.debug("Method {} is not supported for {}/{}", cmd.getType(), a.id(), a.version());
+        metrics.error(a, cmd.getType(), APIException.ERROR_METHOD_NOT_SUPPORTED);
+
+        ResponseModel m = new ResponseModel();
+        m.code = APIException.ERROR_METHOD_NOT_SUPPORTED;
+        m.message = errorMessage(m.code, "Method '" + cmd.getType().name().toUpperCase() + "' not supported");
+        cmd.setResponse(m);
+
+        if (out == null) {
+            processResponseModel(cmd);
+        } else {
+            ApiCompression.write(cmd.getResponseEncoding(), out, stream -> writeResponseModel(cmd, stream, null));
+        }
+        return cmd;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<MethodTypes> allowedMethods(String commandId, String version) {
+        return routes.methods(findStrategy(new APICommand(commandId, version)));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<APICommand> processAsync(APICommand cmd) {
+        CallerContext context = new CallerContext();
+        return CompletableFuture.supplyAsync(() -> context.run(() -> onBehalf(() -> process(cmd))), asyncExecutor());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<APICommand> batch(List<APICommand> commands) {
+
+        if (commands.size() < 2 || Boolean.TRUE.equals(IN_BATCH.get())) {
+            // Nothing to parallelize, or a nested batch which must not wait for the same pool
+            return batchInCurrentThread(commands);
+        }
+
+        ExecutorService executor = batchExecutor();
+        CallerContext context = new CallerContext();
+
+        List<Future<APICommand>> futures = list();
+        for (APICommand cmd : commands.subList(1, commands.size())) {
+            futures.add(executor.submit(() -> context.run(() -> onBehalf(() -> processIsolated(cmd)))));
+        }
+
+        // The first command is processed by the calling thread
+        List<APICommand> results = list();
+        results.add(processIsolated(commands.get(0)));
+
+        for (int i = 0; i < futures.size(); i++) {
+            results.add(await(futures.get(i), commands.get(i + 1)));
+        }
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Transactional(propagation = Propagation.REQUIRED)
+    public List<APICommand> batchInTransaction(List<APICommand> commands) {
+        // All or nothing: the exception of a failed command leaves the
+        // transactional boundary of this method and rolls back the transaction
+        return commands.stream().map(this::process).collect(Collectors.toList());
+    }
+
+    /**
+     * Executes the callback marking the current thread as processing commands
+     * on behalf of another thread, so nested batches are not parallelized
+     * with the same pool
+     *
+     * @param callback The callback
+     * @param <S>      The type of the result
+     * @return The callback's result
+     */
+    private static <S> S onBehalf(Supplier<S> callback) {
+        Boolean previous = IN_BATCH.get();
+        try {
+            IN_BATCH.set(Boolean.TRUE);
+            return callback.get();
+        } finally {
+            IN_BATCH.set(previous);
+        }
+    }
+
+    /**
+     * Processes the commands sequentially in the current thread
+     *
+     * @param commands The API Commands
+     * @return The resulted API Commands
+     */
+    private List<APICommand> batchInCurrentThread(List<APICommand> commands) {
+        return commands.stream().map(this::processIsolated).collect(Collectors.toList());
+    }
+
+    /**
+     * Processes the command converting any exception to an error response
+     *
+     * @param cmd The API Command
+     * @return The resulted API Command
+     */
+    private APICommand processIsolated(APICommand cmd) {
+        try {
+            return process(cmd);
+        } catch (Exception ex) {
+            logger.debug("Batch command {} failed: {}", cmd, ex.getMessage());
+            return error(cmd, ex);
+        }
+    }
+
+    /**
+     * Waits for the result of the command executed in the pool, but not
+     * longer than the deadline of the command
+     *
+     * @param future The future of the command
+     * @param cmd    The original API Command
+     * @return The resulted API Command
+     */
+    private APICommand await(Future<APICommand> future, APICommand cmd) {
+        try {
+            return (cmd.getDeadline() == null) ? future.get() :
+                    future.get(Math.max(cmd.remainingMillis(), 0L), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            future.cancel(true); // Don't let it occupy the pool
+            return error(cmd, deadlineExceeded(cmd));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return error(cmd, ex);
+        } catch (ExecutionException ex) {
+            return error(cmd, ex.getCause());
+        }
+    }
+
+    /**
+     * Returns the executor for batches creating the default one if it was not
+     * set. The default executor has a bounded number of threads and a bounded
+     * queue, and executes a task in the calling thread if the queue is full.
+     *
+     * @return The executor
+     */
+    private ExecutorService batchExecutor() {
+
+        ExecutorService executor = this.batchExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.batchExecutor;
+                if (executor == null) {
+                    CustomizableThreadFactory factory = new CustomizableThreadFactory("api-batch-");
+                    factory.setDaemon(true);
+
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(batchThreads, batchThreads,
+                            60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(batchThreads * 16),
+                            factory, new ThreadPoolExecutor.CallerRunsPolicy());
+                    pool.allowCoreThreadTimeOut(true);
+
+                    executor = pool;
+                    this.batchExecutor = executor;
+                    this.ownBatchExecutor = true;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Returns the executor for asynchronous commands. By default, a thread per
+     * task executor with virtual threads is used if the runtime supports them,
+     * otherwise commands are executed with the batch executor.
+     *
+     * @return The executor
+     */
+    private ExecutorService asyncExecutor() {
+
+        ExecutorService executor = this.asyncExecutor;
+        if (executor == null) {
+            synchronized (this) {
+                executor = this.asyncExecutor;
+                if (executor == null) {
+                    executor = CallerContext.newVirtualThreadExecutor();
+                    this.ownAsyncExecutor = (executor != null);
+                    if (executor == null) {
+                        executor = batchExecutor();
+                    }
+                    this.asyncExecutor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Shuts down the default executors if they were created by the factory
      */
-    private void register(ApiStrategy a, ApiCommandStrategy s) {
+    @PreDestroy
+    public void shutdown() {
+        if (ownBatchExecutor && batchExecutor != null) {
+            batchExecutor.shutdown();
+        }
+        if (ownAsyncExecutor && asyncExecutor != null) {
+            asyncExecutor.shutdown();
+        }
+    }
 
-        String aId = a.id().toLowerCase();
-        String aV = a.version().toLowerCase();
+    /**
+     * Invokes specific API Strategy method within the time budget of the
+     * command. The deadline is checked before and after the invocation and is
+     * propagated to repositories via {@link QueryDeadline}, so the queries
+     * are cancelled by the database when the budget is exhausted.
+     *
+     * @param s   Found strategy
+     * @param cmd A command
+     * @return A model of response
+     */
+    private Object doInvoke(ApiCommandStrategy s, APICommand cmd) {
 
-        Map<String, ApiCommandStrategy> versions = commands.computeIfAbsent(aId, k -> new HashMap<>());
+        if (cmd.getDeadline() == null) {
+            return invokeMethod(s, cmd);
+        }
 
-        if (versions.containsKey(aV)) {
-            logger.warn("Duplicate version " + aV + " for " + aId + ", ignore it.");
+        checkDeadline(cmd);
+        Long previous = QueryDeadline.get();
+        QueryDeadline.set(cmd.getDeadline());
+        try {
+            Object rs = invokeMethod(s, cmd);
+            checkDeadline(cmd); // Nobody waits for the result, so don't serialize it
+            return rs;
+        } finally {
+            QueryDeadline.set(previous);
         }
-        // Allow to override
-        versions.put(aV, s);
     }
 
     /**
-     * {@inheritDoc}
+     * Rejects the command if its deadline is missed
+     *
+     * @param cmd The command
+     * @throws APIException with the {@link APIException#ERROR_DEADLINE_EXCEEDED}
+     *                      code
      */
-    @Override
-    public APICommand process(APICommand cmd) {
-
-        ApiCommandStrategy s = findStrategy(cmd);
-        processRequestModel(cmd, s.config());
-
-        cmd.setResponse(doInvoke(s, cmd));
-        processResponseModel(cmd);
+    private static void checkDeadline(APICommand cmd) {
+        if (cmd.isExpired()) {
+            throw deadlineExceeded(cmd);
+        }
+    }
 
-        return cmd;
+    private static APIException deadlineExceeded(APICommand cmd) {
+        return APIException.withCode("Deadline exceeded for " + cmd.getCommandId() + "/" + cmd.getVersion(),
+                APIException.ERROR_DEADLINE_EXCEEDED);
     }
 
     /**
-     * Invokes specific API Strategy method
+     * Invokes the strategy method corresponding to the command type
      *
      * @param s   Found strategy
      * @param cmd A command
      * @return A model of response
      */
-    private Object doInvoke(ApiCommandStrategy s, APICommand cmd) {
+    private Object invokeMethod(ApiCommandStrategy s, APICommand cmd) {
 
         Object rs;
         logger.trace("Invoking {} method for {}/{}", cmd.getType(), cmd.getCommandId(), cmd.getVersion());
@@ -173,9 +1125,27 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
         return rs;
     }
 
+    /**
+     * Selects the response format by the media types accepted by the client,
+     * if they are given
+     *
+     * @param cmd The command
+     */
+    private void negotiate(APICommand cmd) {
+
+        if (cmd.getAccept() != null) {
+            RawFormatTypes f = serializers.negotiate(cmd.getAccept());
+            if (f == null) {
+                throw APIException.withCode("Not acceptable: " + cmd.getAccept(), APIException.ERROR_CLIENT);
+            }
+            cmd.setResponseFormat(f);
+        }
+    }
+
     /**
      * Finds a strategy for specified command by its identifier and version
-     * marker.
+     * marker. The common case is a single lookup in the current routing
+     * snapshot with the key built from the command as it is.
      *
      * @param cmd Original command
      * @return A processing strategy
@@ -185,18 +1155,41 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
         Objects.requireNonNull(cmd.getCommandId(), "Command ID is null");
         Objects.requireNonNull(cmd.getVersion(), "Version ID is null");
 
+        ApiCommandStrategy s = routes.find(cmd.getCommandId(), cmd.getVersion());
+        return (s == null) ? findStrategyCaseInsensitive(cmd) : s;
+    }
+
+    /**
+     * A slow path of the strategy search: the identifiers are normalized and
+     * the context is rescanned once for every unknown command.
+     *
+     * @param cmd Original command
+     * @return A processing strategy
+     */
+    private ApiCommandStrategy findStrategyCaseInsensitive(APICommand cmd) {
+
         String id = cmd.getCommandId().toLowerCase();
         String v = cmd.getVersion().toLowerCase();
 
-        if (!commands.containsKey(id)) {
-            this.registerApi(ctx.getBeansOfType(ApiCommandStrategy.class));
-        }
+        ApiCommandStrategy s = routes.find(id, v);
+        if (s == null) {
+            String key = ApiRoutes.key(id, v);
+            if (!unknownCommands.contains(key) && unknownCommands.size() < MAX_UNKNOWN_COMMANDS) {
 
-        Assert.isTrue(commands.containsKey(id), "Command '" + id + "' not found");
-        Map<String, ApiCommandStrategy> versions = commands.get(id);
+                this.registerApi(ctx.getBeansOfType(ApiCommandStrategy.class));
+                s = routes.find(id, v);
 
-        Assert.isTrue(versions.containsKey(v), "Version '" + v + "' for a command '" + id + "' does not exist");
-        return versions.get(v);
+                if (s == null) {
+                    unknownCommands.add(key);
+                }
+            }
+        }
+
+        if (s == null) {
+            Assert.isTrue(routes.hasCommand(id), "Command '" + id + "' not found");
+            throw new IllegalArgumentException("Version '" + v + "' for a command '" + id + "' does not exist");
+        }
+        return s;
     }
 
     /**
@@ -247,16 +1240,11 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
         if (reason instanceof APIException) {
 
             // Maybe the integer code is defined
-            String msg = (code != APIException.ERROR_CLIENT) ? text(errorCodePrefix + code) : null;
-            if (msg == null || msg.startsWith("[xxx")) {
-                String reasonMsg = reason.getMessage();
-                if (notEmpty(m.errorId) && m.errorId.startsWith("files")) {
-                    reasonMsg = UriUtils.encodePath(reasonMsg, UTF_8.toString());
-                }
-                m.message = reasonMsg;
-            } else {
-                m.message = msg;
+            String reasonMsg = reason.getMessage();
+            if (notEmpty(m.errorId) && m.errorId.startsWith("files")) {
+                reasonMsg = UriUtils.encodePath(reasonMsg, UTF_8.toString());
             }
+            m.message = (code != APIException.ERROR_CLIENT) ? errorMessage(code, reasonMsg) : reasonMsg;
         } else if (reason instanceof ConstraintViolationException) {
             m.message = getExceptionMessage(reason);
         } else {
@@ -269,6 +1257,43 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
         return cmd;
     }
 
+    /**
+     * Finds the message for the given error code in the current locale. The
+     * messages are resolved once per code and locale, including the codes
+     * without messages, so a storm of errors doesn't turn into a storm of
+     * lookups in the text resources.
+     *
+     * @param code           The error code
+     * @param defaultMessage The message to use if no message is defined for
+     *                       the code
+     * @return The message
+     */
+    private String errorMessage(int code, String defaultMessage) {
+
+        Locale locale = LocaleContextHolder.getLocale();
+        Map<Integer, Optional<String>> codes = errorMessages.get(locale);
+        if (codes == null) {
+            codes = errorMessages.computeIfAbsent(locale, l -> new ConcurrentHashMap<>());
+        }
+
+        Optional<String> msg = codes.get(code);
+        if (msg == null) {
+            msg = codes.computeIfAbsent(code, c -> {
+                String txt = textLocalized(errorCodePrefix + c, locale);
+                return (txt == null || txt.startsWith("[xxx")) ? Optional.empty() : Optional.of(txt);
+            });
+        }
+        return msg.orElse(defaultMessage);
+    }
+
+    /**
+     * Removes the resolved messages of error codes (e.g. after reloading of
+     * the text resources)
+     */
+    public void clearErrorMessages() {
+        errorMessages.clear();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -308,28 +1333,9 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
     private void processRequestModel(APICommand cmd, ApiStrategy a) {
 
         if (cmd.getRawModel() != null) {
-
-            Assert.notNull(cmd.getRequestFormat(), "Request content format is empty");
-            Serializer s = getSerializer(cmd.getRequestFormat());
-
+            logger.trace("Raw request data: {}", cmd.getRawModel());
             try {
-                logger.trace("Raw request data: {}", cmd.getRawModel());
-                if (s != null) {
-                    RequestModel m = s.fromStr(cmd.getRawModel(), a.model());
-                    if (cmd.getRequest() != null && (m != null)) {
-                        /*
-                         * This means - we have parsed previously some query params
-                         */
-                        m.fields = cmd.getRequest().fields;
-                        m.page = cmd.getRequest().page;
-                        m.perPage = cmd.getRequest().perPage;
-                        m.search = cmd.getRequest().search;
-                        m.sorted = cmd.getRequest().sorted;
-                    } else {
-                        logger.debug("No RequestModel was detected for {}", cmd);
-                    }
-                    cmd.setRequest(m);
-                }
+                parseRequestModel(cmd, s -> s.fromStr(cmd.getRawModel(), a.model()));
             } catch (Exception ex) {
                 logger.error("Unable to parse: {}", cmd.getRawModel());
                 throw ex;
@@ -339,6 +1345,37 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
         }
     }
 
+    /**
+     * Parses the request model with the serializer for the request format of
+     * the command and stores it in the command.
+     *
+     * @param cmd    Command
+     * @param parser The function to parse the request model with the given
+     *               serializer
+     */
+    private void parseRequestModel(APICommand cmd, Function<Serializer, RequestModel> parser) {
+
+        Assert.notNull(cmd.getRequestFormat(), "Request content format is empty");
+        Serializer s = getSerializer(cmd.getRequestFormat());
+
+        if (s != null) {
+            RequestModel m = parser.apply(s);
+            if (cmd.getRequest() != null && (m != null)) {
+                /*
+                 * This means - we have parsed previously some query params
+                 */
+                m.fields = cmd.getRequest().fields;
+                m.page = cmd.getRequest().page;
+                m.perPage = cmd.getRequest().perPage;
+                m.search = cmd.getRequest().search;
+                m.sorted = cmd.getRequest().sorted;
+            } else {
+                logger.debug("No RequestModel was detected for {}", cmd);
+            }
+            cmd.setRequest(m);
+        }
+    }
+
     /**
      * Serializing the built response model to a raw string. If model is null, the
      * function does nothing.
@@ -346,6 +1383,199 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
      * @param cmd Command
      */
     private void processResponseModel(APICommand cmd) {
+        processResponseModel(cmd, null);
+    }
+
+    /**
+     * Serializing the built response model to a raw string including only the
+     * given fields.
+     *
+     * @param cmd    Command
+     * @param fields The fields to include (all fields, if empty)
+     */
+    private void processResponseModel(APICommand cmd, List<String> fields) {
+
+        Object m = prepareResponseModel(cmd);
+        Serializer s = getSerializer(cmd.getResponseFormat());
+
+        if (isStreamed(m) && cmd.getResponseFormat() == RawFormatTypes.NDJSON) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writeItems(m, s, out, fields, true, cmd);
+            cmd.setRawModel(new String(out.toByteArray(), UTF_8));
+        } else if (isStreamed(m)) {
+            // No sink to write into, so the items are collected
+            m = collectItems(m, cmd);
+            cmd.setResponse(m);
+            cmd.setRawModel((s == null) ? nullSafe(m) : isEmpty(fields) ? s.toStr(m) : s.toStr(m, fields));
+        } else if (s == null) {
+            cmd.setRawModel(nullSafe(m)); // RAW
+        } else {
+            cmd.setRawModel(isEmpty(fields) ? s.toStr(m) : s.toStr(m, fields));
+        }
+        logger.debug("raw api response: {}", cmd.getRawModel());
+    }
+
+    /**
+     * Serializing the built response model directly to the given stream.
+     *
+     * @param cmd    Command
+     * @param out    The output stream
+     * @param fields The fields to include (all fields, if empty)
+     */
+    private void writeResponseModel(APICommand cmd, OutputStream out, List<String> fields) {
+
+        Object m = prepareResponseModel(cmd);
+        Serializer s = getSerializer(cmd.getResponseFormat());
+
+        if (isStreamed(m) && s != null) {
+            writeItems(m, s, out, fields, cmd.getResponseFormat() == RawFormatTypes.NDJSON, cmd);
+        } else if (s == null) {
+            if (isStreamed(m)) {
+                m = collectItems(m, cmd);
+                cmd.setResponse(m);
+            }
+            try {
+                out.write(nullSafe(m).getBytes(UTF_8)); // RAW
+            } catch (IOException ex) {
+                throw new ApplicationException(ex);
+            }
+        } else if (isEmpty(fields)) {
+            s.toStream(m, out);
+        } else {
+            s.toStream(m, out, fields);
+        }
+        logger.debug("api response written for {}", cmd);
+    }
+
+    /**
+     * Checks whether the response model is a sequence of items which are to be
+     * written one by one (a {@link Stream}, an {@link Iterator} or a
+     * {@link Flow.Publisher}).
+     *
+     * @param m The response model
+     * @return true, if the model is streamed
+     */
+    private static boolean isStreamed(Object m) {
+        return m instanceof Stream || m instanceof Iterator || m instanceof Flow.Publisher;
+    }
+
+    /**
+     * Writes the items of a streamed response model incrementally to the given
+     * stream. A {@link Stream} is closed after that, so resources like database
+     * cursors are released. The items of a publisher are written as they
+     * arrive, but the current thread waits for all of them (not longer than
+     * the deadline of the command).
+     *
+     * @param m      The response model (a stream, an iterator or a publisher)
+     * @param s      The serializer
+     * @param out    The output stream
+     * @param fields The fields to include (all fields, if empty)
+     * @param lines  true for the NDJSON format, false for a JSON array
+     * @param cmd    The command
+     */
+    private void writeItems(Object m, Serializer s, OutputStream out, List<String> fields, boolean lines,
+                            APICommand cmd) {
+
+        if (m instanceof Stream) {
+            try (Stream<?> stream = (Stream<?>) m) {
+                s.toStream(stream.iterator(), out, lines, fields);
+            }
+        } else if (m instanceof Flow.Publisher) {
+            joinOrCancel(writePublisher((Flow.Publisher<?>) m, s, out, fields, lines), cmd);
+        } else {
+            s.toStream((Iterator<?>) m, out, lines, fields);
+        }
+    }
+
+    /**
+     * Subscribes to the publisher writing its items to the given stream as
+     * they arrive with backpressure: no more than
+     * {@link #setPublisherPrefetch(int)} items are requested at once.
+     *
+     * @param p      The publisher
+     * @param s      The serializer
+     * @param out    The output stream
+     * @param fields The fields to include (all fields, if empty)
+     * @param lines  true for the NDJSON format, false for a JSON array
+     * @return The future which is completed when all the items are written
+     */
+    private CompletableFuture<Void> writePublisher(Flow.Publisher<?> p, Serializer s, OutputStream out,
+                                                   List<String> fields, boolean lines) {
+
+        SequenceWriter seq = s.toSequence(out, lines, fields);
+        return ApiFlowSubscriber.subscribe(p, publisherPrefetch, new ApiFlowSubscriber.ItemSink() {
+
+            @Override
+            public void accept(Object item) throws IOException {
+                seq.write(item);
+            }
+
+            @Override
+            public void finish() throws IOException {
+                seq.close();
+            }
+        });
+    }
+
+    /**
+     * Collects the items of a streamed response model into a list.
+     *
+     * @param m   The response model (a stream, an iterator or a publisher)
+     * @param cmd The command
+     * @return The list of the items
+     */
+    private List<Object> collectItems(Object m, APICommand cmd) {
+
+        List<Object> items = new ArrayList<>();
+        if (m instanceof Stream) {
+            try (Stream<?> stream = (Stream<?>) m) {
+                stream.forEach(items::add);
+            }
+        } else if (m instanceof Flow.Publisher) {
+            joinOrCancel(ApiFlowSubscriber.subscribe((Flow.Publisher<?>) m, publisherPrefetch, items::add), cmd);
+        } else {
+            ((Iterator<?>) m).forEachRemaining(items::add);
+        }
+        return items;
+    }
+
+    /**
+     * Waits for the future like {@link #join(CompletableFuture, APICommand)},
+     * but completes the future on a failure, so the work behind it is
+     * cancelled
+     *
+     * @param f   The future
+     * @param cmd The command
+     */
+    private static void joinOrCancel(CompletableFuture<?> f, APICommand cmd) {
+        try {
+            join(f, cmd);
+        } catch (RuntimeException ex) {
+            f.completeExceptionally(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the fields requested with the 'fields' query parameter. Error
+     * responses are always written in full.
+     *
+     * @param cmd Command
+     * @return The list of fields or null, if all fields are required
+     */
+    private static List<String> requestedFields(APICommand cmd) {
+        RequestModel rq = cmd.getRequest();
+        return (rq == null) ? null : rq.fields;
+    }
+
+    /**
+     * Prepares the response model of the command for serialization. If no
+     * response was generated, the default model is used.
+     *
+     * @param cmd Command
+     * @return The response model
+     */
+    private Object prepareResponseModel(APICommand cmd) {
 
         Object m = cmd.getResponse();
         if (m == null) {
@@ -368,15 +1598,7 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
             // A way to reset the code value if code=0 is not required
             ((ResponseModel) m).code = null;
         }
-
-        Serializer s = getSerializer(cmd.getResponseFormat());
-
-        if (s == null) {
-            cmd.setRawModel(nullSafe(m)); // RAW
-        } else {
-            cmd.setRawModel(s.toStr(m));
-        }
-        logger.debug("raw api response: {}", cmd.getRawModel());
+        return m;
     }
 
     /**
@@ -386,31 +1608,259 @@ public class APICommandFactoryImpl extends BaseServiceImpl implements APICommand
      * @return Serializer instance
      */
     private Serializer getSerializer(RawFormatTypes format) {
+        return serializers.get(format);
+    }
 
-        Serializer s = null;
-        switch (format) {
-            case JSON:
-                s = json;
-                break;
-            case XML:
-                s = xml;
-                break;
-            case RAW:
-                break;
-            default:
-                throw new UnsupportedOperationException("Unsupported format : " + format);
+    /**
+     * An immutable snapshot of the API command registry. Each strategy is
+     * accessible by the command identifier and the version without building
+     * any keys. Both the declared and the lower-cased forms are stored to
+     * avoid normalization of the command for the most of requests.
+     */
+    private static final class ApiRoutes {
+
+        private static final Set<MethodTypes> ALL_METHODS =
+                Collections.unmodifiableSet(EnumSet.allOf(MethodTypes.class));
+
+        /**
+         * Identifiers of the commands and their versions (lower-cased)
+         */
+        private final Map<String, Map<String, ApiCommandStrategy>> commands;
+
+        /**
+         * The routing table: strategies by identifiers and versions (in both
+         * declared and lower-cased forms)
+         */
+        private final Map<String, Map<String, ApiCommandStrategy>> table;
+
+        /**
+         * Implemented methods of the strategies
+         */
+        private final Map<ApiCommandStrategy, Set<MethodTypes>> methods = new IdentityHashMap<>();
+
+        /**
+         * Limits of the strategies
+         */
+        private final Map<ApiCommandStrategy, ApiThrottle> throttles = new IdentityHashMap<>();
+
+        /**
+         * Resolved metrics of the strategies by the ordinals of implemented
+         * methods
+         */
+        private final Map<ApiCommandStrategy, ApiMetrics.Recorder[]> recorders = new IdentityHashMap<>();
+
+        /**
+         * The metrics SPI
+         */
+        private final ApiMetrics metrics;
+
+        /**
+         * Constructor
+         *
+         * @param commands The registry of commands by identifiers and versions
+         * @param limits   The configured limits by 'id:version' or 'id' keys
+         *                 (lower-cased)
+         * @param metrics  The metrics SPI
+         * @param previous The previous snapshot to keep the state of limits
+         *                 (can be null)
+         */
+        ApiRoutes(Map<String, Map<String, ApiCommandStrategy>> commands, Map<String, ApiLimits> limits,
+                  ApiMetrics metrics, ApiRoutes previous) {
+
+            this.commands = commands;
+            this.metrics = metrics;
+
+            Map<String, Map<String, ApiCommandStrategy>> map = new HashMap<>();
+            commands.forEach((id, versions) -> versions.forEach((v, s) -> {
+                map.computeIfAbsent(id, k -> new HashMap<>()).put(v, s);
+                methods.computeIfAbsent(s, ApiUtils::implementedMethods);
+
+                ApiStrategy a = s.config();
+                if (a != null && a.id().equalsIgnoreCase(id) && a.version().equalsIgnoreCase(v)) {
+                    map.computeIfAbsent(a.id(), k -> new HashMap<>()).put(a.version(), s);
+                }
+                if (a != null) {
+                    ApiLimits l = limits.containsKey(key(id, v)) ? limits.get(key(id, v)) : limits.get(id);
+                    throttles.put(s, ApiThrottle.of(a, l, (previous == null) ? null : previous.throttles.get(s)));
+                    recorders.computeIfAbsent(s, k -> resolve(a, methods.get(k)));
+                }
+            }));
+            this.table = map;
+        }
+
+        /**
+         * Builds a key of a command for limits and the negative cache
+         *
+         * @param id The command identifier
+         * @param v  The version
+         * @return The key
+         */
+        static String key(String id, String v) {
+            return id + ':' + v;
+        }
+
+        ApiCommandStrategy find(String id, String v) {
+            Map<String, ApiCommandStrategy> versions = table.get(id);
+            return (versions == null) ? null : versions.get(v);
+        }
+
+        /**
+         * Returns the methods implemented by the strategy
+         *
+         * @param s The strategy
+         * @return The set of methods (all methods for unknown strategies)
+         */
+        Set<MethodTypes> methods(ApiCommandStrategy s) {
+            Set<MethodTypes> set = methods.get(s);
+            return (set == null) ? ALL_METHODS : set;
+        }
+
+        private ApiMetrics.Recorder[] resolve(ApiStrategy a, Set<MethodTypes> implemented) {
+            ApiMetrics.Recorder[] r = new ApiMetrics.Recorder[MethodTypes.values().length];
+            implemented.forEach(m -> r[m.ordinal()] = metrics.recorder(a, m));
+            return r;
+        }
+
+        /**
+         * Returns the metrics of the strategy resolved on registration
+         *
+         * @param s      The strategy
+         * @param method The method type
+         * @return The metrics (resolved on the fly for unknown strategies)
+         */
+        ApiMetrics.Recorder recorder(ApiCommandStrategy s, MethodTypes method) {
+            ApiMetrics.Recorder[] r = recorders.get(s);
+            ApiMetrics.Recorder m = (r == null) ? null : r[method.ordinal()];
+            return (m == null) ? metrics.recorder(s.config(), method) : m;
+        }
+
+        /**
+         * Returns the limits of the strategy
+         *
+         * @param s The strategy
+         * @return The limits ({@link ApiThrottle#NONE} for unknown strategies)
+         */
+        ApiThrottle throttle(ApiCommandStrategy s) {
+            return throttles.getOrDefault(s, ApiThrottle.NONE);
+        }
+
+        boolean hasCommand(String id) {
+            return commands.containsKey(id);
+        }
+
+        Map<String, Map<String, ApiCommandStrategy>> copyCommands() {
+            Map<String, Map<String, ApiCommandStrategy>> copy = new HashMap<>();
+            commands.forEach((id, versions) -> copy.put(id, new HashMap<>(versions)));
+            return copy;
         }
-        return s;
     }
 
     ///////////////////////////////////////////////////////////////////////////
     ///// getters/setters
     ///////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Sets limits of commands overriding the limits defined in their
+     * {@link ApiStrategy} annotations. The keys are 'id:version' (for a
+     * version) or 'id' (for all versions of the command). The limits are
+     * applied on the next registration of commands.
+     *
+     * @param limits The map of limits
+     */
+    public void setLimits(Map<String, ApiLimits> limits) {
+        Map<String, ApiLimits> map = new HashMap<>();
+        limits.forEach((k, v) -> map.put(k.toLowerCase(), v));
+        this.limits = map;
+    }
+
+    /**
+     * Sets the metrics SPI implementation ({@link ApiMetrics#NONE} to switch
+     * the metrics off)
+     *
+     * @param metrics The metrics
+     */
+    public void setMetrics(ApiMetrics metrics) {
+        synchronized (this) {
+            this.metrics = metrics;
+            // The registered commands are bound to the new metrics
+            this.routes = new ApiRoutes(routes.copyCommands(), limits, metrics, routes);
+        }
+    }
+
+    /**
+     * @return The metrics of processed commands
+     */
+    public ApiMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @param publisherPrefetch the maximum number of items requested at once
+     *                          from publishers returned by strategies
+     */
+    public void setPublisherPrefetch(int publisherPrefetch) {
+        this.publisherPrefetch = publisherPrefetch;
+    }
+
+    /**
+     * @param maxRequestSize the maximum size of a decompressed request in
+     *                       bytes (16 MB by default), a larger request is
+     *                       rejected as a client error
+     */
+    public void setMaxRequestSize(long maxRequestSize) {
+        this.maxRequestSize = maxRequestSize;
+    }
+
+    /**
+     * Sets the store of responses of commands with idempotency keys (by
+     * default, an in-memory store of 10000 responses kept for a day)
+     *
+     * @param idempotencyStore The store
+     */
+    public void setIdempotencyStore(ApiIdempotencyStore idempotencyStore) {
+        this.idempotencyStore = idempotencyStore;
+    }
+
     /**
      * @param errorCodePrefix the errorCodePrefix to set
      */
     public void setErrorCodePrefix(String errorCodePrefix) {
         this.errorCodePrefix = errorCodePrefix;
+        this.errorMessages.clear();
+    }
+
+    /**
+     * @param batchExecutor the executor for batches to set
+     */
+    public void setBatchExecutor(ExecutorService batchExecutor) {
+        this.batchExecutor = batchExecutor;
+    }
+
+    /**
+     * @param responseCacheSize the maximum number of cached responses to set
+     */
+    public void setResponseCacheSize(int responseCacheSize) {
+        this.responseCache = new ApiResponseCache(responseCacheSize);
+    }
+
+    /**
+     * Removes all cached responses of GET commands
+     */
+    public void clearResponseCache() {
+        responseCache.clear();
+    }
+
+    /**
+     * @param asyncExecutor the executor for asynchronous commands to set
+     */
+    public void setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    /**
+     * @param batchThreads the number of threads of the default batch executor
+     */
+    public void setBatchThreads(int batchThreads) {
+        this.batchThreads = batchThreads;
     }
 }
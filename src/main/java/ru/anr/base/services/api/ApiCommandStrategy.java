@@ -19,6 +19,12 @@ import ru.anr.base.domain.api.APICommand;
 
 /**
  * An interface for general API strategy.
+ * <p>
+ * Besides a single model, a method can return a sequence of items as a
+ * {@link java.util.stream.Stream}, an {@link java.util.Iterator} or, for
+ * non-blocking data sources, a {@link java.util.concurrent.Flow.Publisher}.
+ * The items of a publisher are requested in batches and serialized as they
+ * arrive (see {@link APICommandFactory#processReactive}).
  *
  * @author Alexey Romanchuk
  * @created Nov 10, 2014
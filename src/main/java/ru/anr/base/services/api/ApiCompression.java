@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import ru.anr.base.ApplicationException;
+import ru.anr.base.domain.api.APIException;
+import ru.anr.base.domain.api.ContentEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression and decompression of raw models with {@link ContentEncoding}.
+ * Deflaters and inflaters hold large native buffers, so they are taken from
+ * bounded pools and returned there after usage instead of being created for
+ * each stream. The given streams are never closed.
+ *
+ * @created Oct 18, 2026
+ */
+final class ApiCompression {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    /**
+     * Deflaters without zlib wrapping (for gzip)
+     */
+    private static final BlockingQueue<Deflater> RAW_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Deflaters with zlib wrapping
+     */
+    private static final BlockingQueue<Deflater> ZLIB_DEFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    /**
+     * Inflaters with zlib wrapping
+     */
+    private static final BlockingQueue<Inflater> ZLIB_INFLATERS = new ArrayBlockingQueue<>(POOL_SIZE);
+
+    private ApiCompression() {
+    }
+
+    /**
+     * Writes data to the stream compressing it with the given encoding
+     *
+     * @param e      The encoding
+     * @param out    The stream to write compressed data
+     * @param writer The writer of uncompressed data
+     */
+    static void write(ContentEncoding e, OutputStream out, Consumer<OutputStream> writer) {
+
+        if (e == null || e == ContentEncoding.IDENTITY) {
+            writer.accept(out);
+            return;
+        }
+        OutputStream z = open(e, out);
+        writer.accept(z);
+        try {
+            z.close();
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Opens a stream which compresses the written data with the given
+     * encoding. Closing of the stream finishes the compressed data (the
+     * target stream is not closed) and returns the deflater to the pool. If
+     * the stream is not closed because of an error, the deflater is just
+     * dropped.
+     *
+     * @param e   The encoding
+     * @param out The stream to write compressed data
+     * @return The stream to write uncompressed data
+     */
+    static OutputStream open(ContentEncoding e, OutputStream out) {
+
+        if (e == null || e == ContentEncoding.IDENTITY) {
+            return new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush(); // The stream is not ours
+                }
+            };
+        }
+
+        boolean gzip = (e == ContentEncoding.GZIP);
+        BlockingQueue<Deflater> pool = gzip ? RAW_DEFLATERS : ZLIB_DEFLATERS;
+
+        Deflater deflater = pool.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+        }
+        try {
+            return gzip ? new GzipStream(out, deflater, pool) : new PooledDeflaterStream(out, deflater, pool);
+        } catch (IOException ex) {
+            release(deflater, pool);
+            throw new ApplicationException(ex);
+        }
+    }
+
+    private static void release(Deflater deflater, BlockingQueue<Deflater> pool) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Compresses the data with the given encoding
+     *
+     * @param e    The encoding
+     * @param data The data
+     * @return The compressed data
+     */
+    static byte[] encode(ContentEncoding e, byte[] data) {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        write(e, bytes, z -> {
+            try {
+                z.write(data);
+            } catch (IOException ex) {
+                throw new ApplicationException(ex);
+            }
+        });
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reads data from the stream decompressing it with the given encoding. The
+     * size of decompressed data is limited to protect from decompression
+     * bombs.
+     *
+     * @param e       The encoding
+     * @param in      The stream with compressed data
+     * @param maxSize The maximum size of decompressed data in bytes
+     * @param reader  The reader of uncompressed data
+     * @param <T>     The type of the result
+     * @return The result of the reader
+     * @throws APIException with {@link APIException#ERROR_CLIENT} if the
+     *                      decompressed data exceed the maximum size
+     */
+    static <T> T read(ContentEncoding e, InputStream in, long maxSize, Function<InputStream, T> reader) {
+
+        if (e == null || e == ContentEncoding.IDENTITY) {
+            return reader.apply(in);
+        }
+
+        InputStream shielded = new FilterInputStream(in) {
+            @Override
+            public void close() {
+                // The stream is not ours
+            }
+        };
+
+        if (e == ContentEncoding.GZIP) {
+            // The JDK stream deals with all the optional headers and members of gzip
+            try (GZIPInputStream z = new GZIPInputStream(shielded, BUFFER_SIZE)) {
+                return reader.apply(new LimitedInputStream(z, maxSize));
+            } catch (IOException ex) {
+                throw new ApplicationException(ex);
+            }
+        }
+
+        Inflater inflater = ZLIB_INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            return reader.apply(new LimitedInputStream(new InflaterInputStream(shielded, inflater, BUFFER_SIZE),
+                    maxSize));
+        } finally {
+            inflater.reset();
+            if (!ZLIB_INFLATERS.offer(inflater)) {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * A stream which fails once more than the given number of bytes is read
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long maxSize;
+
+        private long count;
+
+        LimitedInputStream(InputStream in, long maxSize) {
+            super(in);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counted(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counted(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counted(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void counted(long n) {
+            count += n;
+            if (count > maxSize) {
+                throw APIException.withCode("The decompressed request exceeds " + maxSize + " bytes",
+                        APIException.ERROR_CLIENT);
+            }
+        }
+    }
+
+    /**
+     * A deflater stream which returns its deflater to the pool on closing
+     */
+    private static class PooledDeflaterStream extends DeflaterOutputStream {
+
+        private final BlockingQueue<Deflater> pool;
+
+        private boolean closed;
+
+        PooledDeflaterStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool) {
+            super(out, deflater, BUFFER_SIZE);
+            this.pool = pool;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                finish();
+                out.flush();
+                release(def, pool);
+            }
+        }
+    }
+
+    /**
+     * A gzip stream with the given deflater (the JDK one always creates a new
+     * deflater)
+     */
+    private static final class GzipStream extends PooledDeflaterStream {
+
+        private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+        private final CRC32 crc = new CRC32();
+
+        GzipStream(OutputStream out, Deflater deflater, BlockingQueue<Deflater> pool) throws IOException {
+            super(out, deflater, pool);
+            out.write(HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!def.finished()) {
+                super.finish();
+                writeInt((int) crc.getValue());
+                writeInt((int) def.getBytesRead());
+            }
+        }
+
+        private void writeInt(int v) throws IOException {
+            out.write(v & 0xff);
+            out.write((v >> 8) & 0xff);
+            out.write((v >> 16) & 0xff);
+            out.write((v >> 24) & 0xff);
+        }
+    }
+}
@@ -41,4 +41,15 @@ public class ApiConfig extends BaseSpringParent {
     public APICommandFactory factory() {
         return new APICommandFactoryImpl();
     }
+
+    /**
+     * Prepares API commands, their serializers and validators on the context
+     * refresh, in background.
+     *
+     * @return The bean instance
+     */
+    @Bean(name = "apiWarmUp")
+    public ApiWarmUp warmUp() {
+        return new ApiWarmUp();
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * A subscriber which passes the items of a {@link Flow.Publisher} returned by
+ * a reactive strategy to a sink (e.g. a serializer) as they arrive. The items
+ * are requested in batches, so the publisher never produces more items than
+ * the sink is able to consume. If the resulted future is completed by anybody
+ * else (a timeout, a cancellation), the subscription is cancelled.
+ *
+ * @created Oct 18, 2026
+ */
+final class ApiFlowSubscriber implements Flow.Subscriber<Object> {
+
+    /**
+     * The consumer of items
+     */
+    @FunctionalInterface
+    interface ItemSink {
+
+        /**
+         * Consumes the next item
+         *
+         * @param item The item
+         * @throws IOException If the item can't be written
+         */
+        void accept(Object item) throws IOException;
+
+        /**
+         * Called after the last item
+         *
+         * @throws IOException If the sequence can't be finished
+         */
+        default void finish() throws IOException {
+            // Nothing by default
+        }
+    }
+
+    private final ItemSink sink;
+
+    /**
+     * The number of items requested at once
+     */
+    private final int prefetch;
+
+    /**
+     * The number of consumed items after which more items are requested
+     */
+    private final int refill;
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * The number of items consumed since the last request (the signals are
+     * serial, so no synchronization is required)
+     */
+    private int consumed;
+
+    private ApiFlowSubscriber(ItemSink sink, int prefetch) {
+        this.sink = sink;
+        this.prefetch = Math.max(prefetch, 1);
+        this.refill = Math.max(this.prefetch / 2, 1);
+    }
+
+    /**
+     * Subscribes the sink to the publisher
+     *
+     * @param publisher The publisher
+     * @param prefetch  The maximum number of items requested at once
+     * @param sink      The sink
+     * @return The future which is completed after the last item is consumed
+     */
+    static CompletableFuture<Void> subscribe(Flow.Publisher<?> publisher, int prefetch, ItemSink sink) {
+
+        ApiFlowSubscriber subscriber = new ApiFlowSubscriber(sink, prefetch);
+        subscriber.done.whenComplete((r, ex) -> {
+            if (ex != null) {
+                subscriber.cancel();
+            }
+        });
+        publisher.subscribe(subscriber);
+        return subscriber.done;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onSubscribe(Flow.Subscription s) {
+
+        Objects.requireNonNull(s);
+        if (subscription != null || done.isDone()) {
+            s.cancel();
+            return;
+        }
+        this.subscription = s;
+        s.request(prefetch);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onNext(Object item) {
+
+        if (done.isDone()) {
+            return; // Cancelled
+        }
+        try {
+            sink.accept(item);
+        } catch (IOException | RuntimeException ex) {
+            done.completeExceptionally(ex);
+            return;
+        }
+        if (++consumed == refill) {
+            consumed = 0;
+            subscription.request(refill);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onError(Throwable t) {
+        done.completeExceptionally(t);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onComplete() {
+
+        if (done.isDone()) {
+            return;
+        }
+        try {
+            sink.finish();
+            done.complete(null);
+        } catch (IOException | RuntimeException ex) {
+            done.completeExceptionally(ex);
+        }
+    }
+
+    private void cancel() {
+        Flow.Subscription s = subscription;
+        if (s != null) {
+            s.cancel();
+        }
+    }
+}
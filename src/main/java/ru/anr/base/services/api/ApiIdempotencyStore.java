@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+/**
+ * A store of responses of POST/PUT API commands executed with idempotency
+ * keys (see {@link ru.anr.base.domain.api.APICommand#idempotencyKey(String)}).
+ * When a command is retried with the same key, the stored response is
+ * returned without executing the command again. Only successful executions
+ * are stored. An implementation must be thread-safe.
+ *
+ * @created Oct 18, 2026
+ */
+public interface ApiIdempotencyStore {
+
+    /**
+     * Finds the stored response
+     *
+     * @param key The idempotency key
+     * @return The response or null, if nothing stored (or it has expired)
+     */
+    IdempotentResponse find(String key);
+
+    /**
+     * Stores the response of a successfully executed command
+     *
+     * @param key      The idempotency key
+     * @param response The response
+     */
+    void store(String key, IdempotentResponse response);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+/**
+ * Configured limits of an API command which override the limits of the
+ * {@link ApiStrategy} annotation (see {@link ApiStrategy#maxConcurrency()} and
+ * {@link ApiStrategy#rateLimit()}).
+ *
+ * @created Oct 18, 2026
+ */
+public final class ApiLimits {
+
+    /**
+     * The maximum number of concurrent executions (0 - not limited)
+     */
+    private final int maxConcurrency;
+
+    /**
+     * The maximum number of requests per second (0 - not limited)
+     */
+    private final int rateLimit;
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrency The maximum number of concurrent executions (0 -
+     *                       not limited)
+     * @param rateLimit      The maximum number of requests per second (0 - not
+     *                       limited)
+     */
+    public ApiLimits(int maxConcurrency, int rateLimit) {
+        this.maxConcurrency = maxConcurrency;
+        this.rateLimit = rateLimit;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getRateLimit() {
+        return rateLimit;
+    }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.util.DigestUtils;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.ContentEncoding;
+import ru.anr.base.domain.api.RawFormatTypes;
+import ru.anr.base.domain.api.models.RequestModel;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.domain.api.models.SortModel;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * A bounded in-memory cache of serialized responses of GET API commands. The
+ * entries are keyed by all parameters of the command which can affect the
+ * response, and each entry has a strong ETag computed from the serialized
+ * response. The keys and the responses are also used to share a response
+ * between concurrent identical commands. Only the serialized form of a
+ * response is kept, so commands sharing it never get the same mutable model.
+ * Compressed bytes of a response are kept along with it once they are
+ * requested. When the cache is full, the least recently used responses are
+ * evicted: each response remembers the tick of its last access, so reads stay
+ * lock-free and the order is only sorted on eviction.
+ *
+ * @created Oct 18, 2026
+ */
+class ApiResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiResponseCache.class);
+
+    /**
+     * The stored responses
+     */
+    private final Map<ResponseKey, CachedResponse> entries = new ConcurrentHashMap<>();
+
+    /**
+     * The maximum number of the stored responses
+     */
+    private final int maxSize;
+
+    /**
+     * The logical clock of accesses to the responses
+     */
+    private final AtomicLong ticks = new AtomicLong();
+
+    /**
+     * Constructor
+     *
+     * @param maxSize The maximum number of the stored responses
+     */
+    ApiResponseCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Finds a response which has not expired yet.
+     *
+     * @param key The key of the command
+     * @return The response or null, if nothing found
+     */
+    CachedResponse get(ResponseKey key) {
+
+        CachedResponse r = entries.get(key);
+        if (r != null && r.expired(System.currentTimeMillis())) {
+            entries.remove(key, r);
+            r = null;
+        }
+        if (r != null) {
+            r.lastAccess = ticks.incrementAndGet();
+        }
+        return r;
+    }
+
+    /**
+     * Stores the response of the processed command.
+     *
+     * @param key        The key of the command
+     * @param cmd        The processed command
+     * @param body       The bytes of the serialized response
+     * @param ttlSeconds The time to live in seconds
+     * @return The stored response
+     */
+    CachedResponse put(ResponseKey key, APICommand cmd, byte[] body, int ttlSeconds) {
+
+        if (entries.size() >= maxSize) {
+            evict();
+        }
+        CachedResponse r = new CachedResponse(cmd, body, System.currentTimeMillis() + ttlSeconds * 1000L);
+        r.lastAccess = ticks.incrementAndGet();
+        entries.put(key, r);
+        return r;
+    }
+
+    /**
+     * Removes all stored responses
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Removes expired responses. If the cache is still full, a part of the
+     * least recently used responses is removed as well. Concurrent evictions
+     * are done one by one, so the cache is not emptied more than required.
+     */
+    private synchronized void evict() {
+
+        if (entries.size() < maxSize) {
+            return; // Already done by another thread
+        }
+        long now = System.currentTimeMillis();
+        entries.values().removeIf(r -> r.expired(now));
+
+        int toRemove = entries.size() - maxSize + Math.max(1, maxSize / 10);
+        if (toRemove > 0) {
+            // A snapshot of the ticks, as they can change while sorting
+            Map<ResponseKey, Long> accessed = new HashMap<>();
+            entries.forEach((k, r) -> accessed.put(k, r.lastAccess));
+
+            accessed.entrySet().stream().sorted(Map.Entry.comparingByValue()).limit(toRemove)
+                    .forEach(e -> entries.remove(e.getKey()));
+        }
+        logger.debug("Evicted API responses, {} left", entries.size());
+    }
+
+    /**
+     * A stored response with its strong ETag
+     */
+    static final class CachedResponse {
+
+        /**
+         * The class of the response model, if a copy of the model can be
+         * restored from the serialized response (null otherwise)
+         */
+        private final Class<?> type;
+
+        /**
+         * The format of the serialized response
+         */
+        private final RawFormatTypes format;
+
+        /**
+         * The serialized response
+         */
+        private final String rawModel;
+
+        /**
+         * The bytes of the serialized response as they are written to a
+         * stream (e.g. the binary data, not the Base64 text for binary
+         * formats)
+         */
+        private final byte[] body;
+
+        /**
+         * The ETag value (quoted), calculated on demand
+         */
+        private volatile String etag;
+
+        /**
+         * The expiration time in millis
+         */
+        private final long expiresAt;
+
+        /**
+         * The tick of the last access (for the eviction order)
+         */
+        private volatile long lastAccess;
+
+        /**
+         * The serialized response as bytes for each encoding, calculated on
+         * demand
+         */
+        private final AtomicReferenceArray<byte[]> encoded =
+                new AtomicReferenceArray<>(ContentEncoding.values().length);
+
+        /**
+         * Constructor
+         *
+         * @param cmd       The processed command
+         * @param body      The bytes of the serialized response
+         * @param expiresAt The expiration time in millis
+         */
+        CachedResponse(APICommand cmd, byte[] body, long expiresAt) {
+            Object response = cmd.getResponse();
+            this.type = (response instanceof ResponseModel && cmd.getResponseFormat() != RawFormatTypes.NDJSON) ?
+                    response.getClass() : null;
+            this.format = cmd.getResponseFormat();
+            this.rawModel = cmd.getRawModel();
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean expired(long now) {
+            return now >= expiresAt;
+        }
+
+        Class<?> getType() {
+            return type;
+        }
+
+        RawFormatTypes getFormat() {
+            return format;
+        }
+
+        String getRawModel() {
+            return rawModel;
+        }
+
+        /**
+         * @param e The encoding
+         * @return The bytes of the serialized response compressed with the
+         * given encoding
+         */
+        byte[] getEncoded(ContentEncoding e) {
+            byte[] bytes = encoded.get(e.ordinal());
+            if (bytes == null) {
+                bytes = (e == ContentEncoding.IDENTITY) ? body : ApiCompression.encode(e, body);
+                encoded.set(e.ordinal(), bytes);
+            }
+            return bytes;
+        }
+
+        String getEtag() {
+            String tag = etag;
+            if (tag == null) {
+                tag = '"' + DigestUtils.md5DigestAsHex(body) + '"';
+                this.etag = tag;
+            }
+            return tag;
+        }
+    }
+
+    /**
+     * The key of a GET command which includes all the parameters affecting its
+     * response.
+     */
+    static final class ResponseKey {
+
+        private final String commandId;
+        private final String version;
+        private final String principal;
+        private final Locale locale;
+        private final Map<String, Object> contexts;
+        private final String rawModel;
+        private final RawFormatTypes requestFormat;
+        private final RawFormatTypes responseFormat;
+        private final Integer page;
+        private final Integer perPage;
+        private final String search;
+        private final List<String> fields;
+        private final List<SortModel> sorted;
+
+        private final int hash;
+
+        /**
+         * Builds the key for the given command (before the command is
+         * processed). Responses can depend on the current user and the
+         * locale, so they are a part of the key as well.
+         *
+         * @param cmd The command
+         */
+        ResponseKey(APICommand cmd) {
+
+            RequestModel rq = cmd.getRequest();
+
+            this.commandId = cmd.getCommandId().toLowerCase();
+            this.version = cmd.getVersion().toLowerCase();
+            Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+            this.principal = (auth == null) ? "" : auth.getName();
+            this.locale = LocaleContextHolder.getLocale();
+            this.contexts = new HashMap<>(cmd.getContexts());
+            this.rawModel = cmd.getRawModel();
+            this.requestFormat = cmd.getRequestFormat();
+            this.responseFormat = cmd.getResponseFormat();
+            this.page = (rq == null) ? null : rq.page;
+            this.perPage = (rq == null) ? null : rq.perPage;
+            this.search = (rq == null) ? null : rq.search;
+            this.fields = (rq == null) ? null : rq.fields;
+            this.sorted = (rq == null) ? null : rq.sorted;
+
+            this.hash = Objects.hash(commandId, version, principal, locale, contexts, rawModel, requestFormat, responseFormat,
+                    page, perPage, search, fields, sorted);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResponseKey)) {
+                return false;
+            }
+            ResponseKey k = (ResponseKey) o;
+            return hash == k.hash
+                    && commandId.equals(k.commandId)
+                    && version.equals(k.version)
+                    && principal.equals(k.principal)
+                    && locale.equals(k.locale)
+                    && contexts.equals(k.contexts)
+                    && Objects.equals(rawModel, k.rawModel)
+                    && requestFormat == k.requestFormat
+                    && responseFormat == k.responseFormat
+                    && Objects.equals(page, k.page)
+                    && Objects.equals(perPage, k.perPage)
+                    && Objects.equals(search, k.search)
+                    && Objects.equals(fields, k.fields)
+                    && Objects.equals(sorted, k.sorted);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
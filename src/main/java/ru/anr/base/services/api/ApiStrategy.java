@@ -51,4 +51,40 @@ public @interface ApiStrategy {
      * @return The model
      */
     Class<? extends RequestModel> model() default RequestModel.class;
+
+    /**
+     * Defines the time (in seconds) to keep serialized responses of GET
+     * requests in the response cache. The responses of the command are not
+     * cached by default.
+     *
+     * @return The time to live of the cached responses
+     */
+    int cacheSeconds() default 0;
+
+    /**
+     * Defines whether concurrent identical GET requests are coalesced: the
+     * first request is processed, and the others wait for it and share its
+     * response (the response model must not be modified then).
+     *
+     * @return true, if the coalescing is enabled
+     */
+    boolean coalesce() default false;
+
+    /**
+     * The maximum number of concurrent executions of the command. Excess
+     * requests are rejected with the
+     * {@link ru.anr.base.domain.api.APIException#ERROR_TOO_MANY_REQUESTS} code.
+     *
+     * @return The number of executions (0 - not limited)
+     */
+    int maxConcurrency() default 0;
+
+    /**
+     * The maximum number of requests per second for the command. Excess
+     * requests are rejected with the
+     * {@link ru.anr.base.domain.api.APIException#ERROR_TOO_MANY_REQUESTS} code.
+     *
+     * @return The number of requests (0 - not limited)
+     */
+    int rateLimit() default 0;
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import ru.anr.base.domain.api.APIException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits of a command: a bulkhead bounding the number of concurrent executions
+ * and a rate limit of requests per second. The rate is controlled with a
+ * lock-free token bucket (the 'generic cell rate' variant) which allows bursts
+ * up to the number of requests per second. Excess requests are rejected
+ * immediately, nobody waits.
+ *
+ * @created Oct 18, 2026
+ */
+final class ApiThrottle {
+
+    /**
+     * No limits
+     */
+    static final ApiThrottle NONE = new ApiThrottle(0, 0);
+
+    /**
+     * The maximum number of concurrent executions (0, if not limited)
+     */
+    private final int maxConcurrency;
+
+    /**
+     * The maximum number of requests per second (0, if not limited)
+     */
+    private final int rateLimit;
+
+    /**
+     * Permits for concurrent executions (null, if not limited)
+     */
+    private final Semaphore permits;
+
+    /**
+     * The interval between requests for the rate in nanoseconds (0, if not
+     * limited)
+     */
+    private final long interval;
+
+    /**
+     * The maximum burst in nanoseconds
+     */
+    private final long burst;
+
+    /**
+     * The theoretical arrival time of the next request
+     */
+    private final AtomicLong nextArrival = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Constructor
+     *
+     * @param maxConcurrency The maximum number of concurrent executions (0 -
+     *                       not limited)
+     * @param rateLimit      The maximum number of requests per second (0 - not
+     *                       limited)
+     */
+    ApiThrottle(int maxConcurrency, int rateLimit) {
+        this.maxConcurrency = Math.max(maxConcurrency, 0);
+        this.rateLimit = Math.max(rateLimit, 0);
+        this.permits = (maxConcurrency > 0) ? new Semaphore(maxConcurrency) : null;
+        this.interval = (rateLimit > 0) ? TimeUnit.SECONDS.toNanos(1) / rateLimit : 0L;
+        this.burst = TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Builds the limits for the given strategy. The current limits of the
+     * strategy are kept if they are the same, so the executions in progress
+     * and the spent rate survive rebuilds of the routing table.
+     *
+     * @param a       The strategy configuration
+     * @param limits  The configured limits overriding the annotation (can be
+     *                null)
+     * @param current The current limits of the strategy (can be null)
+     * @return The limits
+     */
+    static ApiThrottle of(ApiStrategy a, ApiLimits limits, ApiThrottle current) {
+
+        int concurrency = Math.max((limits == null) ? a.maxConcurrency() : limits.getMaxConcurrency(), 0);
+        int rate = Math.max((limits == null) ? a.rateLimit() : limits.getRateLimit(), 0);
+
+        if (current != null && current.maxConcurrency == concurrency && current.rateLimit == rate) {
+            return current;
+        }
+        return (concurrency > 0 || rate > 0) ? new ApiThrottle(concurrency, rate) : NONE;
+    }
+
+    /**
+     * Takes a permit for execution of a command. If it succeeds,
+     * {@link #release()} must be called after the execution. The concurrency
+     * permit is taken first, so a request rejected by the bulkhead doesn't
+     * spend the rate.
+     *
+     * @param a The strategy configuration
+     * @throws APIException with the {@link APIException#ERROR_TOO_MANY_REQUESTS}
+     *                      code, if the command can't be executed now
+     */
+    void acquire(ApiStrategy a) {
+
+        if (permits != null && !permits.tryAcquire()) {
+            throw APIException.withCode("Too many concurrent requests for " + a.id() + "/" + a.version(),
+                    APIException.ERROR_TOO_MANY_REQUESTS);
+        }
+        if (interval > 0 && !tryTakeToken()) {
+            release();
+            throw APIException.withCode("Rate limit exceeded for " + a.id() + "/" + a.version(),
+                    APIException.ERROR_TOO_MANY_REQUESTS);
+        }
+    }
+
+    /**
+     * Returns the permit taken with {@link #acquire(ApiStrategy)}
+     */
+    void release() {
+        if (permits != null) {
+            permits.release();
+        }
+    }
+
+    private boolean tryTakeToken() {
+
+        long now = System.nanoTime();
+        while (true) {
+            long tat = nextArrival.get();
+            long next = Math.max(tat, now) + interval;
+            if (next - now > burst) {
+                return false;
+            }
+            if (nextArrival.compareAndSet(tat, next)) {
+                return true;
+            }
+        }
+    }
+}
@@ -15,8 +15,24 @@
  */
 package ru.anr.base.services.api;
 
+import org.springframework.aop.support.AopUtils;
+import org.springframework.core.ResolvableType;
 import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.util.Assert;
+import org.springframework.util.ReflectionUtils;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.MethodTypes;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 /**
  * Utils for API.
@@ -26,6 +42,12 @@ import org.springframework.util.Assert;
  */
 public class ApiUtils {
 
+    /**
+     * Types of the results whose elements are the response models
+     */
+    private static final List<Class<?>> CONTAINERS =
+            List.of(Stream.class, Iterable.class, Flow.Publisher.class, CompletionStage.class, Optional.class);
+
     private ApiUtils() {
     }
 
@@ -40,4 +62,60 @@ public class ApiUtils {
         Assert.notNull(a, "Not an API Strategy");
         return a;
     }
+
+    /**
+     * Finds the methods which are actually implemented by the given API
+     * strategy, i.e. overridden in a subclass of
+     * {@link AbstractApiCommandStrategyImpl}. All the methods are supposed
+     * to be implemented by other strategies.
+     *
+     * @param s The API strategy (can be a proxy)
+     * @return The unmodifiable set of the implemented methods
+     */
+    public static Set<MethodTypes> implementedMethods(ApiCommandStrategy s) {
+
+        Class<?> clazz = AopUtils.getTargetClass(s);
+        Set<MethodTypes> methods = EnumSet.allOf(MethodTypes.class);
+
+        if (AbstractApiCommandStrategyImpl.class.isAssignableFrom(clazz)) {
+            methods.removeIf(m -> {
+                Method method = ReflectionUtils.findMethod(clazz, m.name().toLowerCase(), APICommand.class);
+                return method == null || method.getDeclaringClass() == AbstractApiCommandStrategyImpl.class;
+            });
+        }
+        return Collections.unmodifiableSet(methods);
+    }
+
+    /**
+     * Finds the classes of response models declared by the implemented methods
+     * of the given API strategy. For streams, publishers and other containers
+     * the class of their elements is taken. Methods declaring just
+     * {@link Object} or JDK types are skipped.
+     *
+     * @param s The API strategy (can be a proxy)
+     * @return The set of the response model classes
+     */
+    public static Set<Class<?>> responseModels(ApiCommandStrategy s) {
+
+        Class<?> clazz = AopUtils.getTargetClass(s);
+        Set<Class<?>> models = new LinkedHashSet<>();
+
+        for (MethodTypes m : implementedMethods(s)) {
+            Method method = ReflectionUtils.findMethod(clazz, m.name().toLowerCase(), APICommand.class);
+            if (method != null) {
+                ResolvableType type = ResolvableType.forMethodReturnType(method, clazz);
+                for (Class<?> container : CONTAINERS) {
+                    if (container.isAssignableFrom(type.resolve(Object.class))) {
+                        type = type.as(container).getGeneric(0);
+                        break;
+                    }
+                }
+                Class<?> model = type.resolve(Object.class);
+                if (!model.isPrimitive() && !model.getName().startsWith("java.")) {
+                    models.add(model);
+                }
+            }
+        }
+        return models;
+    }
 }
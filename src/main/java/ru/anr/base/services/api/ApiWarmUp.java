@@ -0,0 +1,208 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import ru.anr.base.BaseSpringParent;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.BaseServiceImpl;
+import ru.anr.base.services.serializer.Serializer;
+import ru.anr.base.services.serializer.SerializerRegistry;
+import ru.anr.base.services.validation.ValidationFactory;
+
+import javax.validation.Validator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Prepares everything which is lazily initialized on the first API requests,
+ * so the first requests after a start are not much slower than the others. On
+ * the context refresh it resolves the configurations of all API commands,
+ * builds Jackson serializers and deserializers of their request and response
+ * models in all registered mappers (including the mappers for the selection
+ * of fields), loads validators and Bean Validation metadata of the models and
+ * builds the validator factories of the models in the commands. The work is done in parallel, in background by default. Any
+ * failure is just logged, it only means the work is done later on a request.
+ *
+ * @created Oct 18, 2026
+ */
+public class ApiWarmUp extends BaseSpringParent implements ApplicationListener<ContextRefreshedEvent> {
+
+    private static final Logger logger = LoggerFactory.getLogger(ApiWarmUp.class);
+
+    /**
+     * True, if the warm-up is performed
+     */
+    private boolean enabled = true;
+
+    /**
+     * True, if the context refresh does not wait for the warm-up
+     */
+    private boolean background = true;
+
+    /**
+     * The number of threads for the warm-up
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The completion of the last warm-up
+     */
+    private volatile CompletableFuture<Void> completion = CompletableFuture.completedFuture(null);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        if (enabled && event.getApplicationContext() == ctx) {
+            warmUp();
+        }
+    }
+
+    /**
+     * Starts the warm-up. The beans are taken in the current thread, and the
+     * rest is done in a temporary pool.
+     *
+     * @return The completion of the warm-up
+     */
+    public CompletableFuture<Void> warmUp() {
+
+        long started = System.currentTimeMillis();
+
+        Collection<ApiCommandStrategy> strategies = ctx.getBeansOfType(ApiCommandStrategy.class).values();
+        Set<Serializer> serializers = new LinkedHashSet<>();
+        ctx.getBeansOfType(SerializerRegistry.class).values().forEach(r -> serializers.addAll(r.getSerializers()));
+        Collection<Validator> validators = ctx.getBeansOfType(Validator.class).values();
+        Collection<ValidationFactory> factories = ctx.getBeansOfType(ValidationFactory.class).values();
+
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("api-warmup-");
+        threadFactory.setDaemon(true);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1), threadFactory);
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        tasks.add(run(pool, "response models", () -> prepare(ResponseModel.class, serializers, validators)));
+        for (ApiCommandStrategy s : strategies) {
+            tasks.add(run(pool, s.toString(), () -> {
+                ApiStrategy a = s.config();
+                if (a != null) {
+                    Set<Class<?>> models = new LinkedHashSet<>();
+                    models.add(a.model());
+                    models.addAll(ApiUtils.responseModels(s));
+                    models.forEach(m -> prepare(m, serializers, validators));
+
+                    // The validator factories which the command builds on the first validation
+                    Object target = target(s);
+                    if (target instanceof BaseServiceImpl) {
+                        ((BaseServiceImpl) target).preloadValidators(models.toArray(new Class<?>[0]));
+                    }
+                }
+            }));
+        }
+        for (ValidationFactory f : factories) {
+            tasks.add(run(pool, "validators", () -> f.getValidators(Object.class)));
+        }
+
+        CompletableFuture<Void> all = CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((r, ex) -> {
+                    pool.shutdown();
+                    logger.info("API warm-up of {} commands finished in {} ms", strategies.size(),
+                            System.currentTimeMillis() - started);
+                });
+        this.completion = all;
+
+        if (!background) {
+            all.join();
+        }
+        return all;
+    }
+
+    /**
+     * Runs a part of the warm-up logging its failure
+     *
+     * @param pool The pool
+     * @param name The name of the part (for logging)
+     * @param task The task
+     * @return The completion of the task
+     */
+    private static CompletableFuture<Void> run(ExecutorService pool, String name, Runnable task) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                logger.warn("API warm-up failed for {}: {}", name, ex.getMessage());
+                logger.debug("Warm-up failure", ex);
+            }
+        }, pool);
+    }
+
+    /**
+     * Builds and caches serializers, deserializers and validation metadata of
+     * the model class
+     *
+     * @param model       The model class
+     * @param serializers The serializers
+     * @param validators  Bean Validation validators
+     */
+    private static void prepare(Class<?> model, Collection<Serializer> serializers, Collection<Validator> validators) {
+
+        for (Serializer serializer : serializers) {
+            serializer.prepare(model);
+        }
+        for (Validator v : validators) {
+            v.getConstraintsForClass(model);
+        }
+    }
+
+    /**
+     * @return The completion of the last warm-up (e.g. for readiness checks)
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * @param enabled true to perform the warm-up on the context refresh
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @param background false to make the context refresh wait for the
+     *                   warm-up
+     */
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    /**
+     * @param threads the number of threads for the warm-up
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import org.springframework.util.DigestUtils;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.MethodTypes;
+import ru.anr.base.domain.api.RawFormatTypes;
+import ru.anr.base.domain.api.models.RequestModel;
+
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The stored response of a command executed with an idempotency key. Besides
+ * the serialized response it keeps a fingerprint of the request, so the same
+ * key can't be reused for a different request. The response model itself is
+ * kept only in memory, persistent stores have only the serialized response.
+ *
+ * @created Oct 18, 2026
+ */
+public final class IdempotentResponse implements Serializable {
+
+    private static final long serialVersionUID = -3512887236510187751L;
+
+    private final String commandId;
+    private final String version;
+    private final MethodTypes method;
+    private final RawFormatTypes responseFormat;
+
+    /**
+     * The hash of the request (see {@link #fingerprint(APICommand)})
+     */
+    private final String fingerprint;
+
+    /**
+     * The serialized response
+     */
+    private final String rawModel;
+
+    /**
+     * The response model (not stored by persistent stores)
+     */
+    private final transient Object response;
+
+    /**
+     * The time of the execution (epoch millis)
+     */
+    private final long createdAt;
+
+    /**
+     * Constructor
+     *
+     * @param commandId      The command id
+     * @param version        The command version
+     * @param method         The method
+     * @param responseFormat The format of the response
+     * @param fingerprint    The hash of the request
+     * @param rawModel       The serialized response
+     * @param response       The response model (can be null)
+     * @param createdAt      The time of the execution
+     */
+    public IdempotentResponse(String commandId, String version, MethodTypes method, RawFormatTypes responseFormat,
+                              String fingerprint, String rawModel, Object response, long createdAt) {
+        this.commandId = commandId;
+        this.version = version;
+        this.method = method;
+        this.responseFormat = responseFormat;
+        this.fingerprint = fingerprint;
+        this.rawModel = rawModel;
+        this.response = response;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Calculates the fingerprint of a command before its execution: the
+     * method, the contexts (path ids and other parameters), the query
+     * parameters of the request and the serialized request
+     *
+     * @param cmd The command
+     * @return The hash of the request
+     */
+    static String fingerprint(APICommand cmd) {
+
+        StringBuilder sb = new StringBuilder().append(cmd.getType()).append('\n');
+        new TreeMap<>(cmd.getContexts()).forEach((k, v) -> {
+            if (!APICommand.IDEMPOTENCY_KEY.equals(k)) {
+                sb.append(k).append('=').append(v).append('\n');
+            }
+        });
+
+        RequestModel rq = cmd.getRequest();
+        if (rq != null) {
+            sb.append(rq.page).append(',').append(rq.perPage).append(',').append(rq.search).append(',')
+                    .append(rq.fields).append(',');
+            if (rq.sorted != null) {
+                rq.sorted.forEach(o -> sb.append(o.getDirection()).append(o.getField()).append(','));
+            }
+            sb.append('\n');
+        }
+        sb.append(cmd.getRawModel());
+        return DigestUtils.md5DigestAsHex(sb.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Checks the stored response belongs to the same request
+     *
+     * @param cmd         The command (not executed yet)
+     * @param fingerprint The fingerprint of the command
+     * @return true, if it's the same request
+     */
+    boolean matches(APICommand cmd, String fingerprint) {
+        return commandId.equalsIgnoreCase(cmd.getCommandId())
+                && version.equalsIgnoreCase(cmd.getVersion())
+                && method == cmd.getType()
+                && responseFormat == cmd.getResponseFormat()
+                && Objects.equals(this.fingerprint, fingerprint);
+    }
+
+    public String getCommandId() {
+        return commandId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public MethodTypes getMethod() {
+        return method;
+    }
+
+    public RawFormatTypes getResponseFormat() {
+        return responseFormat;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getRawModel() {
+        return rawModel;
+    }
+
+    public Object getResponse() {
+        return response;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+}
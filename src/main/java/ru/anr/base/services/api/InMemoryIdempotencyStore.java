@@ -0,0 +1,88 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An in-memory {@link ApiIdempotencyStore} which keeps a bounded number of
+ * recently used responses (LRU) for a limited time.
+ *
+ * @created Oct 18, 2026
+ */
+public class InMemoryIdempotencyStore implements ApiIdempotencyStore {
+
+    /**
+     * The stored responses in the access order
+     */
+    private final Map<String, IdempotentResponse> entries;
+
+    /**
+     * The time to live of responses in milliseconds
+     */
+    private final long ttl;
+
+    /**
+     * Constructor
+     *
+     * @param maxSize    The maximum number of stored responses
+     * @param ttlSeconds The time to live of responses in seconds
+     */
+    public InMemoryIdempotencyStore(int maxSize, long ttlSeconds) {
+
+        this.ttl = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.entries = new LinkedHashMap<String, IdempotentResponse>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IdempotentResponse> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized IdempotentResponse find(String key) {
+
+        IdempotentResponse r = entries.get(key);
+        if (r != null && System.currentTimeMillis() - r.getCreatedAt() >= ttl) {
+            entries.remove(key);
+            r = null;
+        }
+        return r;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void store(String key, IdempotentResponse response) {
+        entries.put(key, response);
+    }
+
+    /**
+     * Removes all stored responses
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+}
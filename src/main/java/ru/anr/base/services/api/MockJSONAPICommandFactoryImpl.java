@@ -18,12 +18,25 @@ package ru.anr.base.services.api;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Import;
+import ru.anr.base.ApplicationException;
 import ru.anr.base.BaseSpringParent;
 import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.MethodTypes;
 import ru.anr.base.domain.api.models.ResponseModel;
 import ru.anr.base.services.serializer.SerializationConfig;
 import ru.anr.base.services.serializer.Serializer;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * A mock implementation for {@link APICommandFactory}. It can be used for
  * prototyping JSON responses with given API command.
@@ -52,6 +65,52 @@ public class MockJSONAPICommandFactoryImpl extends BaseSpringParent implements A
         return generateResponse("{}", cmd);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public APICommand process(APICommand cmd, InputStream in, OutputStream out) {
+        APICommand rs = process(cmd);
+        try {
+            out.write(rs.getRawModel().getBytes(UTF_8));
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+        return rs;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<APICommand> processAsync(APICommand cmd) {
+        return CompletableFuture.completedFuture(process(cmd));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<APICommand> processReactive(APICommand cmd, InputStream in, OutputStream out) {
+        return CompletableFuture.completedFuture(process(cmd, in, out));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<APICommand> batch(List<APICommand> commands) {
+        return commands.stream().map(this::process).collect(Collectors.toList());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<APICommand> batchInTransaction(List<APICommand> commands) {
+        return batch(commands);
+    }
+
     /**
      * Generates JSON Error model for given parameters.
      *
@@ -93,6 +152,14 @@ public class MockJSONAPICommandFactoryImpl extends BaseSpringParent implements A
         return generateError(64, "System error", ex.getMessage());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Set<MethodTypes> allowedMethods(String commandId, String version) {
+        return EnumSet.allOf(MethodTypes.class);
+    }
+
     /**
      * {@inheritDoc}
      */
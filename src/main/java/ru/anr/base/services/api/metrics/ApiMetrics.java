@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api.metrics;
+
+import ru.anr.base.domain.api.MethodTypes;
+import ru.anr.base.services.api.ApiStrategy;
+
+/**
+ * A metrics SPI for processing of API commands. The commands are identified by
+ * the declared id and version of their strategies and the method type. An
+ * implementation must be thread-safe and fast, because it's called several
+ * times for each command.
+ *
+ * @created Oct 18, 2026
+ */
+public interface ApiMetrics {
+
+    /**
+     * Phases of processing of a command
+     */
+    enum Phase {
+        /**
+         * Parsing of the request model
+         */
+        PARSE,
+        /**
+         * Invocation of the strategy
+         */
+        INVOKE,
+        /**
+         * Serialization of the response model
+         */
+        SERIALIZE,
+        /**
+         * The whole processing including taking responses from the cache
+         */
+        TOTAL
+    }
+
+    /**
+     * Directions of payloads
+     */
+    enum Direction {
+        REQUEST, RESPONSE
+    }
+
+    /**
+     * Metrics which are not collected
+     */
+    ApiMetrics NONE = new ApiMetrics() {
+        @Override
+        public void latency(ApiStrategy api, MethodTypes method, Phase phase, long nanos) {
+            // Nothing
+        }
+
+        @Override
+        public void error(ApiStrategy api, MethodTypes method, int code) {
+            // Nothing
+        }
+
+        @Override
+        public void payload(ApiStrategy api, MethodTypes method, Direction direction, long size) {
+            // Nothing
+        }
+    };
+
+    /**
+     * Records the duration of a phase
+     *
+     * @param api    The strategy configuration
+     * @param method The method type
+     * @param phase  The phase
+     * @param nanos  The duration in nanoseconds
+     */
+    void latency(ApiStrategy api, MethodTypes method, Phase phase, long nanos);
+
+    /**
+     * Records an error of a command
+     *
+     * @param api    The strategy configuration
+     * @param method The method type
+     * @param code   The error code (see {@link ru.anr.base.domain.api.APIException})
+     */
+    void error(ApiStrategy api, MethodTypes method, int code);
+
+    /**
+     * Records the size of a serialized model
+     *
+     * @param api       The strategy configuration
+     * @param method    The method type
+     * @param direction The direction
+     * @param size      The size in bytes (or characters for string models)
+     */
+    void payload(ApiStrategy api, MethodTypes method, Direction direction, long size);
+
+    /**
+     * Resolves the metrics of a command once (on registration of commands), so
+     * they can be recorded without any lookups for each request. The default
+     * implementation delegates to the methods of the SPI.
+     *
+     * @param api    The strategy configuration
+     * @param method The method type
+     * @return The recorder of the command's metrics
+     */
+    default Recorder recorder(ApiStrategy api, MethodTypes method) {
+
+        ApiMetrics metrics = this;
+        return new Recorder() {
+            @Override
+            public void latency(Phase phase, long nanos) {
+                metrics.latency(api, method, phase, nanos);
+            }
+
+            @Override
+            public void error(int code) {
+                metrics.error(api, method, code);
+            }
+
+            @Override
+            public void payload(Direction direction, long size) {
+                metrics.payload(api, method, direction, size);
+            }
+        };
+    }
+
+    /**
+     * The metrics of a single command and method type
+     */
+    interface Recorder {
+
+        /**
+         * Records the duration of a phase
+         *
+         * @param phase The phase
+         * @param nanos The duration in nanoseconds
+         */
+        void latency(Phase phase, long nanos);
+
+        /**
+         * Records an error
+         *
+         * @param code The error code
+         */
+        void error(int code);
+
+        /**
+         * Records the size of a serialized model
+         *
+         * @param direction The direction
+         * @param size      The size in bytes (or characters for string models)
+         */
+        void payload(Direction direction, long size);
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api.metrics;
+
+import ru.anr.base.domain.api.MethodTypes;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default in-memory implementation of {@link ApiMetrics} which keeps
+ * histograms and counters for each command. The collected metrics can be
+ * exported with {@link PrometheusExporter}.
+ *
+ * @created Oct 18, 2026
+ */
+public class ApiMetricsRegistry implements ApiMetrics {
+
+    /**
+     * Bounds of latency buckets: from 10 microseconds to 100 seconds
+     */
+    static final long[] LATENCY_BOUNDS = Histogram.decades(10_000L, 100_000_000_000L);
+
+    /**
+     * Bounds of size buckets: from 100 bytes to 100 megabytes
+     */
+    static final long[] SIZE_BOUNDS = Histogram.decades(100L, 100_000_000L);
+
+    /**
+     * The metrics of commands
+     */
+    private final ConcurrentMap<CommandKey, CommandMetrics> commands = new ConcurrentHashMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void latency(ApiStrategy api, MethodTypes method, Phase phase, long nanos) {
+        metrics(api, method).latency(phase, nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void error(ApiStrategy api, MethodTypes method, int code) {
+        metrics(api, method).error(code);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void payload(ApiStrategy api, MethodTypes method, Direction direction, long size) {
+        metrics(api, method).payload(direction, size);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Recorder recorder(ApiStrategy api, MethodTypes method) {
+        return metrics(api, method);
+    }
+
+    private CommandMetrics metrics(ApiStrategy api, MethodTypes method) {
+        CommandKey key = new CommandKey(api.id(), api.version(), method);
+        CommandMetrics m = commands.get(key);
+        return (m == null) ? commands.computeIfAbsent(key, k -> new CommandMetrics()) : m;
+    }
+
+    /**
+     * @return The collected metrics of all commands
+     */
+    public Map<CommandKey, CommandMetrics> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Resets all collected metrics. The metrics of commands are kept in place,
+     * because they can be already resolved by their users.
+     */
+    public void clear() {
+        commands.values().forEach(CommandMetrics::reset);
+    }
+
+    /**
+     * The identity of a command
+     */
+    public static final class CommandKey {
+
+        private final String commandId;
+        private final String version;
+        private final MethodTypes method;
+
+        CommandKey(String commandId, String version, MethodTypes method) {
+            this.commandId = commandId;
+            this.version = version;
+            this.method = method;
+        }
+
+        public String getCommandId() {
+            return commandId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public MethodTypes getMethod() {
+            return method;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CommandKey)) {
+                return false;
+            }
+            CommandKey k = (CommandKey) o;
+            return commandId.equals(k.commandId) && version.equals(k.version) && method == k.method;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return Objects.hash(commandId, version, method);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return commandId + '/' + version + '/' + method;
+        }
+    }
+
+    /**
+     * The metrics of a command
+     */
+    public static final class CommandMetrics implements Recorder {
+
+        private final Map<Phase, Histogram> latencies = new EnumMap<>(Phase.class);
+        private final Map<Direction, Histogram> payloads = new EnumMap<>(Direction.class);
+        private final ConcurrentMap<Integer, LongAdder> errors = new ConcurrentHashMap<>();
+
+        CommandMetrics() {
+            for (Phase p : Phase.values()) {
+                latencies.put(p, new Histogram(LATENCY_BOUNDS));
+            }
+            for (Direction d : Direction.values()) {
+                payloads.put(d, new Histogram(SIZE_BOUNDS));
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void latency(Phase phase, long nanos) {
+            latencies.get(phase).record(nanos);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void error(int code) {
+            LongAdder counter = errors.get(code);
+            if (counter == null) {
+                counter = errors.computeIfAbsent(code, c -> new LongAdder());
+            }
+            counter.increment();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void payload(Direction direction, long size) {
+            payloads.get(direction).record(size);
+        }
+
+        private void reset() {
+            latencies.values().forEach(Histogram::reset);
+            payloads.values().forEach(Histogram::reset);
+            errors.clear();
+        }
+
+        /**
+         * @param phase The phase
+         * @return The histogram of durations in nanoseconds
+         */
+        public Histogram getLatency(Phase phase) {
+            return latencies.get(phase);
+        }
+
+        /**
+         * @param direction The direction
+         * @return The histogram of payload sizes
+         */
+        public Histogram getPayload(Direction direction) {
+            return payloads.get(direction);
+        }
+
+        /**
+         * @return The numbers of errors by codes
+         */
+        public Map<Integer, LongAdder> getErrors() {
+            return errors;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api.metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram with fixed buckets. The buckets grow exponentially
+ * (1-2-5 steps for each decade), so the relative precision is the same for
+ * small and large values, like in HDR histograms, with a constant memory.
+ *
+ * @created Oct 18, 2026
+ */
+public final class Histogram {
+
+    /**
+     * Upper bounds of the buckets (inclusive), the last bucket is unbounded
+     */
+    private final long[] bounds;
+
+    /**
+     * Counts of values per bucket
+     */
+    private final AtomicLongArray counts;
+
+    /**
+     * The sum of all values
+     */
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Constructor
+     *
+     * @param bounds Upper bounds of the buckets in ascending order
+     */
+    public Histogram(long[] bounds) {
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /**
+     * Builds the bounds with 1-2-5 steps in each decade
+     *
+     * @param from The first bound (a power of 10)
+     * @param to   The last bound
+     * @return The bounds
+     */
+    public static long[] decades(long from, long to) {
+
+        List<Long> list = new ArrayList<>();
+        for (long d = from; d <= to; d *= 10) {
+            for (long step : new long[]{1, 2, 5}) {
+                if (d * step <= to) {
+                    list.add(d * step);
+                }
+            }
+        }
+        return list.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Records a value
+     *
+     * @param value The value
+     */
+    public void record(long value) {
+
+        int i = Arrays.binarySearch(bounds, value);
+        counts.incrementAndGet((i >= 0) ? i : -i - 1);
+        sum.add(value);
+    }
+
+    /**
+     * @return Upper bounds of the buckets (without the unbounded one)
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns cumulative counts of values: the i-th element is the number of
+     * values which are less or equal to the i-th bound. The last element is
+     * the total count.
+     *
+     * @return The array of counts
+     */
+    public long[] cumulativeCounts() {
+
+        long[] r = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < r.length; i++) {
+            total += counts.get(i);
+            r[i] = total;
+        }
+        return r;
+    }
+
+    /**
+     * @return The total number of values
+     */
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return The sum of all values
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Removes all recorded values
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+        sum.reset();
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.api.metrics;
+
+import ru.anr.base.ApplicationException;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the metrics of {@link ApiMetricsRegistry} in the Prometheus text
+ * exposition format. Durations are exported in seconds.
+ *
+ * @created Oct 18, 2026
+ */
+public final class PrometheusExporter {
+
+    /**
+     * The content type of the format
+     */
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String DURATION = "api_command_duration_seconds";
+    private static final String ERRORS = "api_command_errors_total";
+    private static final String PAYLOAD = "api_command_payload_size";
+
+    private PrometheusExporter() {
+    }
+
+    /**
+     * Exports the metrics to a string
+     *
+     * @param registry The registry with metrics
+     * @return The text
+     */
+    public static String export(ApiMetricsRegistry registry) {
+        StringWriter w = new StringWriter();
+        try {
+            write(registry, w);
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+        return w.toString();
+    }
+
+    /**
+     * Writes the metrics to the given writer
+     *
+     * @param registry The registry with metrics
+     * @param w        The writer
+     * @throws IOException If an error occurs
+     */
+    public static void write(ApiMetricsRegistry registry, Writer w) throws IOException {
+
+        Map<ApiMetricsRegistry.CommandKey, ApiMetricsRegistry.CommandMetrics> commands = registry.getCommands();
+
+        header(w, DURATION, "Duration of phases of API commands", "histogram");
+        for (Map.Entry<ApiMetricsRegistry.CommandKey, ApiMetricsRegistry.CommandMetrics> e : commands.entrySet()) {
+            for (ApiMetrics.Phase p : ApiMetrics.Phase.values()) {
+                histogram(w, DURATION, labels(e.getKey()) + ",phase=\"" + p.name().toLowerCase() + "\"",
+                        e.getValue().getLatency(p), 9);
+            }
+        }
+
+        header(w, ERRORS, "Errors of API commands by codes", "counter");
+        for (Map.Entry<ApiMetricsRegistry.CommandKey, ApiMetricsRegistry.CommandMetrics> e : commands.entrySet()) {
+            String labels = labels(e.getKey());
+            for (Map.Entry<Integer, LongAdder> c : e.getValue().getErrors().entrySet()) {
+                w.write(ERRORS + '{' + labels + ",code=\"" + c.getKey() + "\"} " + c.getValue().sum() + '\n');
+            }
+        }
+
+        header(w, PAYLOAD, "Size of serialized models of API commands", "histogram");
+        for (Map.Entry<ApiMetricsRegistry.CommandKey, ApiMetricsRegistry.CommandMetrics> e : commands.entrySet()) {
+            for (ApiMetrics.Direction d : ApiMetrics.Direction.values()) {
+                histogram(w, PAYLOAD, labels(e.getKey()) + ",direction=\"" + d.name().toLowerCase() + "\"",
+                        e.getValue().getPayload(d), 0);
+            }
+        }
+    }
+
+    private static void header(Writer w, String name, String help, String type) throws IOException {
+        w.write("# HELP " + name + ' ' + help + '\n');
+        w.write("# TYPE " + name + ' ' + type + '\n');
+    }
+
+    private static void histogram(Writer w, String name, String labels, Histogram h, int scale) throws IOException {
+
+        long[] bounds = h.getBounds();
+        long[] counts = h.cumulativeCounts();
+        long count = counts[bounds.length];
+        if (count == 0) {
+            return; // Nothing recorded
+        }
+
+        for (int i = 0; i < bounds.length; i++) {
+            w.write(name + "_bucket{" + labels + ",le=\"" + scaled(bounds[i], scale) + "\"} " + counts[i] + '\n');
+        }
+        w.write(name + "_bucket{" + labels + ",le=\"+Inf\"} " + count + '\n');
+        w.write(name + "_sum{" + labels + "} " + scaled(h.getSum(), scale) + '\n');
+        w.write(name + "_count{" + labels + "} " + count + '\n');
+    }
+
+    private static String scaled(long value, int scale) {
+        return BigDecimal.valueOf(value, scale).stripTrailingZeros().toPlainString();
+    }
+
+    private static String labels(ApiMetricsRegistry.CommandKey key) {
+        return "command=\"" + escape(key.getCommandId()) + "\",version=\"" + escape(key.getVersion())
+                + "\",method=\"" + key.getMethod().name().toUpperCase() + '"';
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
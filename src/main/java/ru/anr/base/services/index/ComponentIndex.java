@@ -0,0 +1,363 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.context.ApplicationContext;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import ru.anr.base.ApplicationException;
+import ru.anr.base.services.ExtensionMarker;
+import ru.anr.base.services.validation.Validator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The index of extensions and validators generated at build time by
+ * {@link ComponentIndexProcessor}. The index allows to find the beans of
+ * extensions and validators without reading the annotations of all beans of
+ * the context. Only the classes from the locations (directories or jars)
+ * without an index file have their annotations checked. If no index is found
+ * in the classpath at all, the usual scanning is supposed to be used.
+ *
+ * @created Oct 18, 2026
+ */
+public final class ComponentIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(ComponentIndex.class);
+
+    /**
+     * The location of index files in the classpath
+     */
+    public static final String LOCATION = "META-INF/anr-base.components";
+
+    /**
+     * Loaded indexes per class loader
+     */
+    private static final Map<ClassLoader, ComponentIndex> CACHE = new ConcurrentReferenceHashMap<>();
+
+    /**
+     * Types of indexed components
+     */
+    public enum Kind {
+        /**
+         * Extensions ({@link ExtensionMarker}), the key is the extension
+         * category
+         */
+        EXTENSION,
+        /**
+         * Validators ({@link Validator}), the key is the name of the validated
+         * class
+         */
+        VALIDATOR
+    }
+
+    /**
+     * The indexed components
+     */
+    private final List<Entry> entries;
+
+    /**
+     * The indexed components by their class names
+     */
+    private final Map<String, List<Entry>> byClass;
+
+    /**
+     * The roots of classpath locations which have an index file
+     */
+    private final Set<String> roots;
+
+    /**
+     * The class loader of the components
+     */
+    private final ClassLoader classLoader;
+
+    /**
+     * The candidate beans per application context
+     */
+    private final Map<ApplicationContext, Candidates> candidates = new ConcurrentReferenceHashMap<>();
+
+    ComponentIndex(List<Entry> entries, Set<String> roots, ClassLoader classLoader) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.byClass = entries.stream().collect(Collectors.groupingBy(Entry::getClassName));
+        this.roots = roots;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Loads all the index files available for the given class loader. The
+     * result is cached.
+     *
+     * @param classLoader The class loader
+     * @return The index (can be empty)
+     */
+    public static ComponentIndex load(ClassLoader classLoader) {
+        ClassLoader cl = (classLoader == null) ? ClassUtils.getDefaultClassLoader() : classLoader;
+        return CACHE.computeIfAbsent(cl, ComponentIndex::doLoad);
+    }
+
+    private static ComponentIndex doLoad(ClassLoader cl) {
+
+        List<Entry> entries = new ArrayList<>();
+        Set<String> roots = new HashSet<>();
+        try {
+            Enumeration<URL> urls = cl.getResources(LOCATION);
+            while (urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                roots.add(root(url, LOCATION));
+                try (BufferedReader r = new BufferedReader(new InputStreamReader(url.openStream(), UTF_8))) {
+                    r.lines().map(Entry::parse).filter(Objects::nonNull).forEach(entries::add);
+                }
+            }
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+        logger.info("Loaded {} indexed components from {} locations", entries.size(), roots.size());
+        return new ComponentIndex(entries, roots, cl);
+    }
+
+    /**
+     * @return true, if nothing is indexed
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Finds the indexed components of the given type
+     *
+     * @param kind The type of components
+     * @param key  The key of components (all components of the type, if null)
+     * @return The list of found components
+     */
+    public List<Entry> entries(Kind kind, String key) {
+        return entries.stream()
+                .filter(e -> e.matches(kind, key))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Finds the beans of components of the given type. The beans are matched
+     * by their target classes, so proxied components are found as well. The
+     * classes which are not indexed are taken into account only if they come
+     * from a location without an index, and then their annotations are checked
+     * as the usual scanning does. The candidates are resolved once per type of
+     * beans and refresh of the context.
+     *
+     * @param ctx  The application context
+     * @param kind The type of components
+     * @param key  The key of components (all components of the type, if null)
+     * @param type The expected type of beans
+     * @param <S>  The type of beans
+     * @return The list of found beans or null, if there is no index at all
+     */
+    public <S> List<S> beans(ApplicationContext ctx, Kind kind, String key, Class<S> type) {
+
+        if (isEmpty()) {
+            return null;
+        }
+
+        Candidates c = candidates.compute(ctx,
+                (k, v) -> (v == null || v.startupDate != k.getStartupDate()) ? new Candidates(k.getStartupDate()) : v);
+
+        List<S> beans = new ArrayList<>();
+        for (Candidate b : c.byType.computeIfAbsent(type, t -> resolve(ctx, t))) {
+
+            List<Entry> indexed = byClass.get(b.targetClass.getName());
+            boolean found = (indexed != null) ?
+                    indexed.stream().anyMatch(e -> e.matches(kind, key)) :
+                    !b.covered && annotated(b.targetClass, kind, key);
+            if (found) {
+                beans.add(ctx.getBean(b.name, type));
+            }
+        }
+        return beans;
+    }
+
+    private List<Candidate> resolve(ApplicationContext ctx, Class<?> type) {
+
+        List<Candidate> list = new ArrayList<>();
+        ctx.getBeansOfType(type).forEach((name, bean) -> {
+            Class<?> targetClass = ClassUtils.getUserClass(AopUtils.getTargetClass(bean));
+            list.add(new Candidate(name, targetClass, isCovered(targetClass)));
+        });
+        return list;
+    }
+
+    /**
+     * Checks whether the given class comes from a location with an index file,
+     * i.e. its annotations have been indexed
+     *
+     * @param clazz The class
+     * @return true, if the class is covered by the index
+     */
+    private boolean isCovered(Class<?> clazz) {
+
+        String path = clazz.getName().replace('.', '/') + ".class";
+        URL url = (clazz.getClassLoader() == null) ? null : clazz.getClassLoader().getResource(path);
+        if (url == null) {
+            url = classLoader.getResource(path);
+        }
+        return url != null && roots.contains(root(url, path));
+    }
+
+    private static String root(URL url, String path) {
+        String s = url.toString();
+        return s.endsWith(path) ? s.substring(0, s.length() - path.length()) : s;
+    }
+
+    /**
+     * Checks the annotations of a class which is not indexed
+     *
+     * @param clazz The class
+     * @param kind  The type of components
+     * @param key   The key of components (any, if null)
+     * @return true, if the class is a component of the given type
+     */
+    private static boolean annotated(Class<?> clazz, Kind kind, String key) {
+
+        if (kind == Kind.EXTENSION) {
+            ExtensionMarker a = AnnotationUtils.findAnnotation(clazz, ExtensionMarker.class);
+            return a != null && (key == null || key.equals(a.value()));
+        }
+        Validator a = AnnotationUtils.findAnnotation(clazz, Validator.class);
+        return a != null && (key == null || key.equals(a.type().getName()));
+    }
+
+    /**
+     * A bean which can be a component
+     */
+    private static final class Candidate {
+
+        private final String name;
+        private final Class<?> targetClass;
+        private final boolean covered;
+
+        private Candidate(String name, Class<?> targetClass, boolean covered) {
+            this.name = name;
+            this.targetClass = targetClass;
+            this.covered = covered;
+        }
+    }
+
+    /**
+     * The candidate beans of the given types resolved for a refresh of a
+     * context
+     */
+    private static final class Candidates {
+
+        private final long startupDate;
+        private final Map<Class<?>, List<Candidate>> byType = new ConcurrentHashMap<>();
+
+        private Candidates(long startupDate) {
+            this.startupDate = startupDate;
+        }
+    }
+
+    /**
+     * An indexed component
+     */
+    public static final class Entry {
+
+        private final Kind kind;
+        private final String className;
+        private final String key;
+
+        /**
+         * Constructor
+         *
+         * @param kind      The type of the component
+         * @param className The binary name of the class
+         * @param key       The key (a category or a validated class)
+         */
+        public Entry(Kind kind, String className, String key) {
+            this.kind = kind;
+            this.className = className;
+            this.key = key;
+        }
+
+        /**
+         * Parses a line of an index file
+         *
+         * @param line The line
+         * @return The entry or null, if the line is empty, a comment or a
+         * component of an unsupported type
+         */
+        static Entry parse(String line) {
+
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            String[] parts = line.split("\t", -1);
+            if (parts.length < 3) {
+                throw new ApplicationException("Wrong component index line: " + line);
+            }
+            // The indexes of previous versions also listed API strategies
+            Kind kind = Arrays.stream(Kind.values()).filter(k -> k.name().equals(parts[0])).findFirst().orElse(null);
+            return (kind == null) ? null : new Entry(kind, parts[1], parts[2]);
+        }
+
+        /**
+         * @return The line of an index file for the entry
+         */
+        String format() {
+            return kind.name() + '\t' + className + '\t' + key;
+        }
+
+        private boolean matches(Kind k, String s) {
+            return kind == k && (s == null || s.equals(key));
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return format();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.index;
+
+import ru.anr.base.services.ExtensionMarker;
+import ru.anr.base.services.validation.Validator;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.MirroredTypeException;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * An annotation processor which generates the {@link ComponentIndex} file for
+ * classes marked with {@link ExtensionMarker} and {@link Validator}. It's not registered as a service, so it has to be set
+ * explicitly for the compiler, for example, with the 'annotationProcessors'
+ * option of the maven-compiler-plugin.
+ * <p>
+ * On incremental builds, the entries of the existing index are kept if their
+ * classes still exist.
+ *
+ * @created Oct 18, 2026
+ */
+@SupportedAnnotationTypes({
+        "ru.anr.base.services.ExtensionMarker",
+        "ru.anr.base.services.validation.Validator"
+})
+public class ComponentIndexProcessor extends AbstractProcessor {
+
+    /**
+     * Collected entries of the index (by the kind and the class name)
+     */
+    private final Map<String, ComponentIndex.Entry> entries = new TreeMap<>();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment env) {
+
+        if (env.processingOver()) {
+            writeIndex();
+            return false;
+        }
+
+        Elements elements = processingEnv.getElementUtils();
+
+        for (Element e : env.getElementsAnnotatedWith(ExtensionMarker.class)) {
+            ExtensionMarker a = e.getAnnotation(ExtensionMarker.class);
+            add(new ComponentIndex.Entry(ComponentIndex.Kind.EXTENSION, binaryName(e), a.value()));
+        }
+        for (Element e : env.getElementsAnnotatedWith(Validator.class)) {
+            String type;
+            try {
+                type = e.getAnnotation(Validator.class).type().getName();
+            } catch (MirroredTypeException ex) {
+                TypeMirror m = ex.getTypeMirror();
+                Element typeElement = processingEnv.getTypeUtils().asElement(m);
+                type = (typeElement instanceof TypeElement) ?
+                        elements.getBinaryName((TypeElement) typeElement).toString() : m.toString();
+            }
+            add(new ComponentIndex.Entry(ComponentIndex.Kind.VALIDATOR, binaryName(e), type));
+        }
+        return false;
+    }
+
+    private String binaryName(Element e) {
+        return processingEnv.getElementUtils().getBinaryName((TypeElement) e).toString();
+    }
+
+    private void add(ComponentIndex.Entry e) {
+        entries.put(e.getKind() + ":" + e.getClassName(), e);
+    }
+
+    /**
+     * Writes the index merging it with the existing one
+     */
+    private void writeIndex() {
+
+        readExistingIndex();
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        try {
+            FileObject file = processingEnv.getFiler()
+                    .createResource(StandardLocation.CLASS_OUTPUT, "", ComponentIndex.LOCATION);
+            try (Writer w = file.openWriter()) {
+                w.write("# Generated by " + getClass().getName() + "\n");
+                for (ComponentIndex.Entry e : entries.values()) {
+                    w.write(e.format());
+                    w.write('\n');
+                }
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Unable to write the component index: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Reads the index of the previous build, if it exists
+     */
+    private void readExistingIndex() {
+
+        Elements elements = processingEnv.getElementUtils();
+        try {
+            FileObject file = processingEnv.getFiler()
+                    .getResource(StandardLocation.CLASS_OUTPUT, "", ComponentIndex.LOCATION);
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(file.openInputStream(), UTF_8))) {
+                r.lines().map(ComponentIndex.Entry::parse)
+                        .filter(e -> e != null && elements.getTypeElement(e.getClassName().replace('$', '.')) != null)
+                        .forEach(e -> entries.putIfAbsent(e.getKind() + ":" + e.getClassName(), e));
+            }
+        } catch (IOException ex) {
+            // No index yet
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package ru.anr.base.services.pattern;
 
+import org.springframework.core.annotation.AnnotationUtils;
 import ru.anr.base.dao.EntityUtils;
 
 /**
@@ -45,6 +46,20 @@ public interface Strategy<T> {
      */
     T process(T o, StrategyConfig cfg);
 
+    /**
+     * Returns the types of objects this strategy can be applied to. A factory
+     * uses the types to skip the strategy for other objects without calling
+     * {@link #check(Object, Object...)}. By default, the types are taken from
+     * the {@link ApplicableTo} annotation, and a strategy without the
+     * annotation can be applied to any object.
+     *
+     * @return The array of types
+     */
+    default Class<?>[] applicableTypes() {
+        ApplicableTo a = AnnotationUtils.findAnnotation(getClass(), ApplicableTo.class);
+        return (a == null) ? new Class<?>[]{Object.class} : a.value();
+    }
+
     /**
      * A special function to determine the class of certain parameters.
      *
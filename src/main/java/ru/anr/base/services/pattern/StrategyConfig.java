@@ -18,6 +18,7 @@ package ru.anr.base.services.pattern;
 import org.apache.commons.lang3.ArrayUtils;
 import ru.anr.base.BaseParent;
 
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -28,6 +29,15 @@ import java.util.List;
  */
 public class StrategyConfig {
 
+    /**
+     * The shared configuration of not applicable strategies
+     */
+    private static final StrategyConfig NOT_APPLICABLE = new StrategyConfig(false, null, StrategyModes.Normal);
+
+    static {
+        NOT_APPLICABLE.collection = Collections.emptyList(); // Immutable
+    }
+
     /**
      * True, if a strategy can be applied for the specified object
      */
@@ -49,9 +59,10 @@ public class StrategyConfig {
     private final Object[] params;
 
     /**
-     * A collection of objects gathered during processing through all strategies
+     * A collection of objects gathered during processing through all
+     * strategies (created on the first use)
      */
-    private final List<Object> collection = BaseParent.list();
+    private List<Object> collection;
 
     /**
      * Constructor
@@ -65,7 +76,17 @@ public class StrategyConfig {
         this.applicable = applicable;
         this.object = object;
         this.mode = mode;
-        this.params = ArrayUtils.clone(params);
+        this.params = (params != null && params.length == 0) ? ArrayUtils.EMPTY_OBJECT_ARRAY : ArrayUtils.clone(params);
+    }
+
+    /**
+     * Returns the shared immutable configuration for a strategy which can't
+     * be applied. Nothing can be added to its collection.
+     *
+     * @return The configuration
+     */
+    public static StrategyConfig notApplicable() {
+        return NOT_APPLICABLE;
     }
 
     /**
@@ -91,7 +112,7 @@ public class StrategyConfig {
      */
     public void add(Object o) {
 
-        collection.add(o);
+        getCollection().add(o);
     }
 
     /**
@@ -99,9 +120,20 @@ public class StrategyConfig {
      */
     public List<Object> getCollection() {
 
+        if (collection == null) {
+            collection = BaseParent.list();
+        }
         return collection;
     }
 
+    /**
+     * @return true, if some objects were added to the collection
+     */
+    public boolean hasCollection() {
+
+        return collection != null && !collection.isEmpty();
+    }
+
     /**
      * @return the mode
      */
@@ -115,7 +147,7 @@ public class StrategyConfig {
      */
     public Object[] getParams() {
 
-        return ArrayUtils.clone(params);
+        return ArrayUtils.isEmpty(params) ? params : ArrayUtils.clone(params); // Empty ones are shared
     }
 
     /**
@@ -131,6 +163,16 @@ public class StrategyConfig {
          * After this strategy further execution must be stopped (current
          * strategy is the last)
          */
-        TerminateAfter
+        TerminateAfter,
+        /**
+         * The strategy doesn't change the object, so it can be processed
+         * concurrently with the neighbouring strategies in the same mode (the
+         * object returned by the strategy is ignored). If the caller has an
+         * active transaction, only the strategies marked with
+         * {@link TransactionIndependent} are processed concurrently, and the
+         * others are processed in the calling thread (which is logged once
+         * for each strategy).
+         */
+        Parallel
     }
 }
@@ -33,4 +33,17 @@ public interface StrategyFactory {
      * about applied strategies)
      */
     StrategyStatistic process(Object object, Object... params);
+
+    /**
+     * Executes the strategy chain for the object when the caller needs
+     * neither the list of applied strategies nor the collected results. An
+     * implementation may skip building them.
+     *
+     * @param object An object
+     * @param params An array of additional parameters
+     * @return The resulted object
+     */
+    default Object execute(Object object, Object... params) {
+        return process(object, params).getObject();
+    }
 }
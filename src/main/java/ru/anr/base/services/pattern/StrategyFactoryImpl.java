@@ -17,13 +17,46 @@ package ru.anr.base.services.pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.anr.base.ApplicationException;
 import ru.anr.base.BaseSpringParent;
+import ru.anr.base.services.CallerContext;
 import ru.anr.base.services.pattern.StrategyConfig.StrategyModes;
 
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * An implementation of {@link StrategyFactory}
+ * An implementation of {@link StrategyFactory}. The chain of strategies which
+ * can be applied to objects of a class (see {@link Strategy#applicableTypes()})
+ * is built once for the class, so strategies for other types are not checked
+ * at all.
+ * <p>
+ * Neighbouring strategies in the {@link StrategyModes#Parallel} mode are
+ * processed concurrently with the executor (by default, virtual threads if
+ * the runtime supports them or a bounded pool). The chain continues after all
+ * of them are finished, and their collections are merged in the declared
+ * order. The security, locale and logging contexts of the calling thread are
+ * passed to them. If the calling thread has an active transaction, only the
+ * strategies marked with {@link TransactionIndependent} are processed
+ * concurrently. The others are processed in the calling thread, as other
+ * threads can't take part in the transaction, and a warning is logged the
+ * first time it happens to a strategy.
+ * <p>
+ * The time of checks and processing of each strategy is recorded to
+ * {@link StrategyMetrics} under the identifier of the factory.
  *
  * @author Alexey Romanchuk
  * @created Nov 10, 2014
@@ -33,64 +66,331 @@ public class StrategyFactoryImpl extends BaseSpringParent implements StrategyFac
 
     private static final Logger logger = LoggerFactory.getLogger(StrategyFactoryImpl.class);
 
+    /**
+     * The identifier of factories created without it
+     */
+    public static final String UNNAMED = "unnamed";
+
     /**
      * Chain of strategies. We use a list here to make sure the valid sequence
      * is applied.
      */
-    private final List<Strategy<Object>> strategies;
+    private final List<Link> strategies;
+
+    /**
+     * Chains of strategies for classes of processed objects
+     */
+    private final Map<Class<?>, List<Link>> chains = new ConcurrentHashMap<>();
+
+    /**
+     * The chain for null objects: the strategies applicable to any object
+     */
+    private final List<Link> nullChain;
 
     private boolean debug = false;
 
+    /**
+     * The executor for parallel strategies (null - the default one)
+     */
+    private Executor executor;
+
     /**
      * Constructor
      *
      * @param strategies List of strategies
      */
     public StrategyFactoryImpl(List<Strategy<Object>> strategies) {
-        super();
-        this.strategies = list(strategies); // null safe
+        this(strategies, false);
     }
 
     public StrategyFactoryImpl(List<Strategy<Object>> strategies, boolean debug) {
+        this(UNNAMED, strategies, debug, StrategyMetrics.DEFAULT);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param id         The identifier of the factory for statistics (e.g. an
+     *                   extension id)
+     * @param strategies List of strategies
+     * @param debug      true to collect classes of applied strategies
+     * @param metrics    The registry of statistics
+     */
+    public StrategyFactoryImpl(Object id, List<Strategy<Object>> strategies, boolean debug, StrategyMetrics metrics) {
         super();
-        this.strategies = list(strategies); // null safe
+        this.strategies = list();
+        for (Strategy<Object> s : list(strategies)) { // null safe
+            Class<?> clazz = target(s).getClass();
+            this.strategies.add(new Link(s, clazz, s.applicableTypes(), metrics.counters(id, clazz)));
+        }
+        this.nullChain = chain(Object.class);
         this.debug = debug;
     }
 
+    /**
+     * Builds the chain of strategies applicable to objects of the given class
+     *
+     * @param clazz The class
+     * @return The chain in the original order
+     */
+    private List<Link> chain(Class<?> clazz) {
+
+        List<Link> chain = list();
+        for (Link l : strategies) {
+            if (Arrays.stream(l.types).anyMatch(t -> t.isAssignableFrom(clazz))) {
+                chain.add(l);
+            }
+        }
+        logger.trace("A chain of {} strategies of {} built for {}", chain.size(), strategies.size(), clazz);
+        return chain;
+    }
+
+    /**
+     * Finds the chain of strategies for the given object
+     *
+     * @param object The object
+     * @return The chain
+     */
+    private List<Link> chainOf(Object object) {
+
+        if (object == null) {
+            return nullChain;
+        }
+        List<Link> chain = chains.get(object.getClass());
+        return (chain == null) ? chains.computeIfAbsent(object.getClass(), this::chain) : chain;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public StrategyStatistic process(Object object, Object... params) {
 
-        Object o = object;
         List<Class<?>> list = list();
         List<Object> results = list();
 
-        for (Strategy<Object> s : strategies) {
+        Object o = run(object, params, list, results);
+        return new StrategyStatistic(o, list, results);
+    }
 
-            StrategyConfig cfg = s.check(object, params);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object execute(Object object, Object... params) {
+        return run(object, params, null, null);
+    }
 
-            if (cfg.isApplicable()) {
+    /**
+     * Executes the chain. Nothing is allocated by the chain itself if no
+     * strategy is in the parallel mode, so the path is cheap for chains
+     * without results (e.g. validators).
+     *
+     * @param object  The object
+     * @param params  Additional parameters
+     * @param list    The list of applied strategies (null - not needed)
+     * @param results The resulted collection (null - not needed)
+     * @return The resulted object
+     */
+    private Object run(Object object, Object[] params, List<Class<?>> list, List<Object> results) {
 
-                o = s.process(o, cfg);
+        Object o = object;
+        List<Link> parallel = null;
+        List<StrategyConfig> parallelConfigs = null;
+
+        List<Link> chain = chainOf(object);
+        for (int i = 0; i < chain.size(); i++) {
+
+            Link l = chain.get(i);
+
+            long started = System.nanoTime();
+            StrategyConfig cfg = l.strategy.check(object, params);
+            l.counters.checked(System.nanoTime() - started, cfg.isApplicable());
+
+            if (cfg.isApplicable()) {
 
-                if (debug) {
-                    // As it can be expensive
-                    list.add(target(s).getClass());
+                if (cfg.getMode() == StrategyModes.Parallel) {
+                    if (parallel == null) {
+                        parallel = list();
+                        parallelConfigs = list();
+                    }
+                    parallel.add(l);
+                    parallelConfigs.add(cfg);
+                    continue;
                 }
-                results.addAll(cfg.getCollection());
+                if (parallel != null) {
+                    processParallel(o, parallel, parallelConfigs, list, results);
+                }
+
+                boolean terminated = cfg.getMode() == StrategyModes.TerminateAfter;
+
+                started = System.nanoTime();
+                o = l.strategy.process(o, cfg);
+                l.counters.processed(System.nanoTime() - started, terminated);
+
+                applied(l, cfg, list, results);
 
-                if (cfg.getMode() == StrategyModes.TerminateAfter) {
-                    logger.debug("A chain terminated at {} execution", s);
+                if (terminated) {
+                    logger.debug("A chain terminated at {} execution", l.strategy);
                     break;
                 }
             }
         }
+        if (parallel != null) {
+            processParallel(o, parallel, parallelConfigs, list, results);
+        }
 
         if (strategies.isEmpty()) {
             logger.debug("No one strategy executed due to an empty strategy list");
         }
-        return new StrategyStatistic(o, list, results);
+        return o;
+    }
+
+    private void applied(Link l, StrategyConfig cfg, List<Class<?>> list, List<Object> results) {
+        if (debug && list != null) {
+            list.add(l.clazz);
+        }
+        if (results != null && cfg.hasCollection()) {
+            results.addAll(cfg.getCollection());
+        }
+    }
+
+    /**
+     * Processes the collected parallel strategies concurrently and waits for
+     * all of them. The lists of strategies and configs are cleared.
+     *
+     * @param o       The current object
+     * @param links   The strategies
+     * @param configs Their configurations
+     * @param list    The list of applied strategies (can be null)
+     * @param results The resulted collection (can be null)
+     */
+    private void processParallel(Object o, List<Link> links, List<StrategyConfig> configs,
+                                 List<Class<?>> list, List<Object> results) {
+
+        if (links.size() == 1) {
+            links.get(0).process(o, configs.get(0)); // Nothing to run concurrently with
+        } else {
+
+            boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+            CallerContext context = new CallerContext();
+            Executor e = getExecutor();
+
+            List<CompletableFuture<?>> futures = list();
+            List<Integer> inCaller = list();
+            for (int i = 0; i < links.size(); i++) {
+                Link l = links.get(i);
+                StrategyConfig cfg = configs.get(i);
+                if (inTransaction && !l.independent) {
+                    // The strategy must see and be a part of the caller's transaction
+                    if (l.sequentialLogged.compareAndSet(false, true)) {
+                        logger.warn("The parallel strategy {} is processed sequentially in the transaction of "
+                                + "the caller, mark it with @TransactionIndependent if it doesn't need it", l.clazz);
+                    }
+                    inCaller.add(i);
+                } else {
+                    futures.add(CompletableFuture.runAsync(() -> context.run(() -> {
+                        l.process(o, cfg);
+                        return null;
+                    }), e));
+                }
+            }
+            inCaller.forEach(i -> links.get(i).process(o, configs.get(i)));
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException ex) {
+                Throwable cause = (ex.getCause() == null) ? ex : ex.getCause();
+                throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new ApplicationException(cause);
+            }
+        }
+        for (int i = 0; i < links.size(); i++) {
+            applied(links.get(i), configs.get(i), list, results);
+        }
+        links.clear();
+        configs.clear();
+    }
+
+    /**
+     * @return The executor for parallel strategies
+     */
+    public Executor getExecutor() {
+        return (executor == null) ? DefaultExecutor.INSTANCE : executor;
+    }
+
+    /**
+     * Sets the executor for parallel strategies
+     *
+     * @param executor The executor (null - the default one)
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * A strategy with its resolved class, applicable types and counters
+     */
+    private static final class Link {
+
+        private final Strategy<Object> strategy;
+        private final Class<?> clazz;
+        private final Class<?>[] types;
+        private final StrategyMetrics.Counters counters;
+
+        /**
+         * True, if the strategy doesn't need the caller's transaction
+         */
+        private final boolean independent;
+
+        /**
+         * True, if the sequential processing in a transaction has been logged
+         */
+        private final AtomicBoolean sequentialLogged = new AtomicBoolean();
+
+        Link(Strategy<Object> strategy, Class<?> clazz, Class<?>[] types, StrategyMetrics.Counters counters) {
+            this.strategy = strategy;
+            this.clazz = clazz;
+            this.types = types;
+            this.counters = counters;
+            this.independent = AnnotationUtils.findAnnotation(clazz, TransactionIndependent.class) != null;
+        }
+
+        /**
+         * Processes a parallel strategy (the resulted object is ignored)
+         */
+        void process(Object o, StrategyConfig cfg) {
+            long started = System.nanoTime();
+            strategy.process(o, cfg);
+            counters.processed(System.nanoTime() - started, false);
+        }
+    }
+
+    /**
+     * The default executor shared by all factories: a new virtual thread for
+     * each task if the runtime supports them, otherwise a pool of daemon
+     * threads bounded by the number of processors with a bounded queue, which
+     * executes a task in the calling thread if the queue is full. It's created
+     * on the first use.
+     */
+    private static final class DefaultExecutor {
+
+        private static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+
+            ExecutorService executor = CallerContext.newVirtualThreadExecutor();
+            if (executor == null) {
+                int threads = Runtime.getRuntime().availableProcessors();
+
+                CustomizableThreadFactory factory = new CustomizableThreadFactory("strategy-");
+                factory.setDaemon(true);
+
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                        60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(threads * 16),
+                        factory, new ThreadPoolExecutor.CallerRunsPolicy());
+                pool.allowCoreThreadTimeOut(true);
+                executor = pool;
+            }
+            return executor;
+        }
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.pattern;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free registry of statistics of strategies gathered by
+ * {@link StrategyFactoryImpl}: the number and the total time of checks and
+ * processing, the number of applications and terminations of chains. The
+ * statistics are grouped by identifiers of factories (e.g. extension ids of
+ * services) and classes of strategies.
+ *
+ * @created Oct 18, 2026
+ */
+public final class StrategyMetrics {
+
+    /**
+     * The registry used by factories by default
+     */
+    public static final StrategyMetrics DEFAULT = new StrategyMetrics();
+
+    /**
+     * The counters by factory ids and classes of strategies
+     */
+    private final ConcurrentMap<Object, ConcurrentMap<Class<?>, Counters>> factories = new ConcurrentHashMap<>();
+
+    /**
+     * Finds or creates the counters of a strategy
+     *
+     * @param factoryId The identifier of the factory
+     * @param strategy  The class of the strategy
+     * @return The counters
+     */
+    Counters counters(Object factoryId, Class<?> strategy) {
+        return factories.computeIfAbsent(factoryId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(strategy, c -> new Counters());
+    }
+
+    /**
+     * @return The statistics of all strategies by factory ids
+     */
+    public Map<Object, Map<Class<?>, Counters>> getFactories() {
+        return Collections.unmodifiableMap(factories);
+    }
+
+    /**
+     * @param factoryId The identifier of the factory
+     * @return The statistics of strategies of the factory (an empty map, if
+     * nothing is registered)
+     */
+    public Map<Class<?>, Counters> getStrategies(Object factoryId) {
+        Map<Class<?>, Counters> m = factories.get(factoryId);
+        return (m == null) ? Collections.emptyMap() : Collections.unmodifiableMap(m);
+    }
+
+    /**
+     * Resets all counters (the counters stay registered as factories keep
+     * them)
+     */
+    public void reset() {
+        factories.values().forEach(m -> m.values().forEach(Counters::reset));
+    }
+
+    /**
+     * The counters of a strategy
+     */
+    public static final class Counters {
+
+        private final LongAdder checks = new LongAdder();
+        private final LongAdder checkNanos = new LongAdder();
+        private final LongAdder applied = new LongAdder();
+        private final LongAdder processNanos = new LongAdder();
+        private final LongAdder terminations = new LongAdder();
+
+        Counters() {
+        }
+
+        void checked(long nanos, boolean applicable) {
+            checks.increment();
+            checkNanos.add(nanos);
+            if (applicable) {
+                applied.increment();
+            }
+        }
+
+        void processed(long nanos, boolean terminated) {
+            processNanos.add(nanos);
+            if (terminated) {
+                terminations.increment();
+            }
+        }
+
+        void reset() {
+            checks.reset();
+            checkNanos.reset();
+            applied.reset();
+            processNanos.reset();
+            terminations.reset();
+        }
+
+        /**
+         * @return The number of checks
+         */
+        public long getChecks() {
+            return checks.sum();
+        }
+
+        /**
+         * @return The total time of checks in nanoseconds
+         */
+        public long getCheckNanos() {
+            return checkNanos.sum();
+        }
+
+        /**
+         * @return The number of checks with the applicable result
+         */
+        public long getApplied() {
+            return applied.sum();
+        }
+
+        /**
+         * @return The total time of processing in nanoseconds
+         */
+        public long getProcessNanos() {
+            return processNanos.sum();
+        }
+
+        /**
+         * @return The number of chains terminated after the strategy
+         */
+        public long getTerminations() {
+            return terminations.sum();
+        }
+
+        /**
+         * @return The share of checks with the applicable result (0, if there
+         * were no checks)
+         */
+        public double getHitRate() {
+            long n = getChecks();
+            return (n == 0) ? 0.0 : (double) getApplied() / n;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "checks=" + getChecks() + ", checkNanos=" + getCheckNanos() + ", applied=" + getApplied()
+                    + ", processNanos=" + getProcessNanos() + ", terminations=" + getTerminations();
+        }
+    }
+}
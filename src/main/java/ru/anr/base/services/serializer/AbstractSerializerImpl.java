@@ -17,11 +17,16 @@ package ru.anr.base.services.serializer;
 
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
@@ -31,7 +36,11 @@ import ru.anr.base.ApplicationException;
 import ru.anr.base.BaseParent;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.TimeZone;
 
@@ -50,6 +59,11 @@ public abstract class AbstractSerializerImpl extends BaseParent implements Seria
      */
     private final ObjectMapper objectMapper;
 
+    /**
+     * The mapper for serialization with filtered fields
+     */
+    private volatile ObjectMapper filteredMapper;
+
     /**
      * Constructor. Here is performed general initialization for JSON and XML
      * configuration.
@@ -91,8 +105,7 @@ public abstract class AbstractSerializerImpl extends BaseParent implements Seria
         try {
             return objectMapper.readValue(s, clazz);
         } catch (IOException ex) {
-            logger.error("Serializer exception", ex);
-            throw new ApplicationException(ex.getMessage().replaceAll("ru.anr.([a-zA-Z\\d]*\\.)*([a-zA-Z\\d]*)", ""));
+            throw serializerException(ex);
         }
     }
 
@@ -104,8 +117,7 @@ public abstract class AbstractSerializerImpl extends BaseParent implements Seria
         try {
             return objectMapper.readValue(s, ref);
         } catch (IOException ex) {
-            logger.error("Serializer exception", ex);
-            throw new ApplicationException(ex.getMessage().replaceAll("ru.anr.([a-zA-Z\\d]*\\.)*([a-zA-Z\\d]*)", ""));
+            throw serializerException(ex);
         }
     }
 
@@ -117,11 +129,161 @@ public abstract class AbstractSerializerImpl extends BaseParent implements Seria
         try {
             return objectMapper.writeValueAsString(o);
         } catch (IOException ex) {
-            logger.error("Serializer exception", ex);
-            throw new ApplicationException(ex.getMessage().replaceAll("ru.anr.([a-zA-Z\\d]*\\.)*([a-zA-Z\\d]*)", ""));
+            throw serializerException(ex);
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <S> S fromStream(InputStream in, Class<S> clazz) {
+        try {
+            return objectMapper.readerFor(clazz).without(JsonParser.Feature.AUTO_CLOSE_SOURCE).readValue(in);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] toBytes(Object o) {
+        try {
+            return objectMapper.writeValueAsBytes(o);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <S> S fromBytes(byte[] b, Class<S> clazz) {
+        try {
+            return objectMapper.readValue(b, clazz);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void toStream(Object o, OutputStream out) {
+        try {
+            objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, o);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toStr(Object o, Collection<String> fields) {
+        try {
+            return filteredWriter(fields).writeValueAsString(o);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void toStream(Object o, OutputStream out, Collection<String> fields) {
+        try {
+            filteredWriter(fields).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).writeValue(out, o);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void toStream(Iterator<?> items, OutputStream out, boolean lines, Collection<String> fields) {
+
+        try (SequenceWriter seq = toSequence(out, lines, fields)) {
+            while (items.hasNext()) {
+                seq.write(items.next());
+            }
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SequenceWriter toSequence(OutputStream out, boolean lines, Collection<String> fields) {
+
+        ObjectWriter w = (fields == null || fields.isEmpty()) ? objectMapper.writer() : filteredWriter(fields);
+        w = w.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        if (lines) {
+            w = w.withRootValueSeparator("\n");
+        }
+        try {
+            return w.writeValues(out).init(!lines);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * Builds a writer with the filter for the given fields. A separate copy of
+     * the mapper is used for filtering. It is created on the first usage, so
+     * any later changes of the original mapper do not affect it.
+     *
+     * @param fields The fields to write
+     * @return The writer
+     */
+    protected ObjectWriter filteredWriter(Collection<String> fields) {
+        return filteredMapper().writer(
+                new SimpleFilterProvider().addFilter(FieldsFilter.FILTER_ID, new FieldsFilter(fields)));
+    }
+
+    private ObjectMapper filteredMapper() {
+
+        ObjectMapper m = this.filteredMapper;
+        if (m == null) {
+            m = objectMapper.copy();
+            m.setAnnotationIntrospector(AnnotationIntrospector.pair(
+                    m.getSerializationConfig().getAnnotationIntrospector(), new FieldsFilter.Introspector()));
+            this.filteredMapper = m;
+        }
+        return m;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void prepare(Class<?> type) {
+        Serializer.super.prepare(type);
+        filteredMapper().canSerialize(type); // For the selection of fields
+    }
+
+    /**
+     * Logs the given serialization error and wraps it removing the internal
+     * class names from the message.
+     *
+     * @param ex The original exception
+     * @return The exception to throw
+     */
+    protected static ApplicationException serializerException(IOException ex) {
+        logger.error("Serializer exception", ex);
+        return new ApplicationException(ex.getMessage().replaceAll("ru.anr.([a-zA-Z\\d]*\\.)*([a-zA-Z\\d]*)", ""));
+    }
+
     /**
      * {@inheritDoc}
      */
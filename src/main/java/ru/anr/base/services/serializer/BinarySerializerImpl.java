@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.serializer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.Collection;
+
+/**
+ * A serializer for binary JSON-compatible formats (like Smile or CBOR). The
+ * stream functions work with the binary data directly, and the string
+ * functions use the Base64 encoding of the binary data.
+ *
+ * @created Oct 18, 2026
+ */
+public class BinarySerializerImpl extends JSONSerializerImpl {
+
+    /**
+     * Constructor
+     *
+     * @param factory The factory of the binary format
+     */
+    public BinarySerializerImpl(JsonFactory factory) {
+        super(new ObjectMapper(factory));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <S> S fromStr(String s, Class<S> clazz) {
+        try {
+            return mapper().readValue(Base64.getDecoder().decode(s), clazz);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public <S> S fromStr(String s, TypeReference<S> ref) {
+        try {
+            return mapper().readValue(Base64.getDecoder().decode(s), ref);
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toStr(Object o) {
+        try {
+            return Base64.getEncoder().encodeToString(mapper().writeValueAsBytes(o));
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toStr(Object o, Collection<String> fields) {
+        try {
+            return Base64.getEncoder().encodeToString(filteredWriter(fields).writeValueAsBytes(o));
+        } catch (IOException ex) {
+            throw serializerException(ex);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] strToBytes(String s) {
+        return Base64.getDecoder().decode(s);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String bytesToStr(byte[] b) {
+        return Base64.getEncoder().encodeToString(b);
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.serializer;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonStreamContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedClass;
+import com.fasterxml.jackson.databind.introspect.NopAnnotationIntrospector;
+import com.fasterxml.jackson.databind.ser.PropertyWriter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import ru.anr.base.domain.api.models.ResponseModel;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A property filter which writes only the given fields of serialized objects
+ * (a sparse fieldset). Nested fields are defined with the dotted syntax, for
+ * example, 'id,owner.name'. If a field is given, all its nested fields are
+ * written too. Elements of arrays are filtered like the arrays themselves.
+ * The fields of the response envelope ({@link ResponseModel}: the code,
+ * messages and paging) of the root objects are always written.
+ * <p>
+ * The requested fields are kept as a tree, so paths of written fields are
+ * matched segment by segment without building strings.
+ *
+ * @created Oct 18, 2026
+ */
+public final class FieldsFilter extends SimpleBeanPropertyFilter {
+
+    /**
+     * The identifier of the filter
+     */
+    public static final String FILTER_ID = "apiFieldsFilter";
+
+    /**
+     * The tree of the requested fields
+     */
+    private final Node root = new Node();
+
+    /**
+     * Constructor
+     *
+     * @param fields The requested fields
+     */
+    public FieldsFilter(Collection<String> fields) {
+        super();
+        for (String f : fields) {
+            Node n = root;
+            for (String name : f.trim().split("\\.")) {
+                n = n.children.computeIfAbsent(name, k -> new Node());
+            }
+            n.all = true;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void serializeAsField(Object pojo, JsonGenerator jgen, SerializerProvider provider,
+                                 PropertyWriter writer) throws Exception {
+
+        if (include(jgen.getOutputContext(), writer)) {
+            writer.serializeAsField(pojo, jgen, provider);
+        } else if (!jgen.canOmitFields()) {
+            writer.serializeAsOmittedField(pojo, jgen, provider);
+        }
+    }
+
+    /**
+     * Checks whether the field must be written
+     *
+     * @param context The context of the object with the field
+     * @param writer  The writer of the field
+     * @return true, if the field is requested, or it contains requested
+     * fields, or it's a nested field of a requested one, or it's a field of
+     * the envelope
+     */
+    private boolean include(JsonStreamContext context, PropertyWriter writer) {
+
+        Node n = node(context.getParent());
+        if (n == null) {
+            return false;
+        }
+        if (n.all || n.children.containsKey(writer.getName())) {
+            return true;
+        }
+        return n == root && writer.getMember() != null
+                && writer.getMember().getDeclaringClass().isAssignableFrom(ResponseModel.class);
+    }
+
+    /**
+     * Finds the node of the object written within the given context
+     *
+     * @param c The context (the parent of the object's context)
+     * @return The node or null, if the object is not requested
+     */
+    private Node node(JsonStreamContext c) {
+
+        if (c == null) {
+            return root;
+        }
+        Node parent = node(c.getParent());
+        if (parent == null || parent.all || !c.inObject() || c.getCurrentName() == null) {
+            return parent; // Arrays and roots are transparent
+        }
+        return parent.children.get(c.getCurrentName());
+    }
+
+    /**
+     * A node of the tree of requested fields
+     */
+    private static final class Node {
+
+        /**
+         * Requested nested fields
+         */
+        private final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * True, if the field itself is requested, so all its nested fields
+         * are written
+         */
+        private boolean all;
+    }
+
+    /**
+     * An introspector which assigns the filter to all classes. It is used for
+     * a separate mapper, so the usual serialization is not affected by the
+     * filter.
+     */
+    static final class Introspector extends NopAnnotationIntrospector {
+
+        private static final long serialVersionUID = 8153079342411470812L;
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Object findFilterId(Annotated a) {
+            return (a instanceof AnnotatedClass) ? FILTER_ID : null;
+        }
+    }
+}
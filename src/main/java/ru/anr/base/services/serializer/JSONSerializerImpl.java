@@ -33,8 +33,17 @@ public class JSONSerializerImpl extends AbstractSerializerImpl {
      * Constructor. We can use both JAXB and Jackson annotations for mapping.
      */
     public JSONSerializerImpl() {
+        this(new ObjectMapper());
+    }
+
+    /**
+     * Constructor for JSON-compatible formats which use the given mapper.
+     *
+     * @param origin Original mapper
+     */
+    protected JSONSerializerImpl(ObjectMapper origin) {
 
-        super(new ObjectMapper());
+        super(origin);
 
         mapper().setAnnotationIntrospector(
                 new AnnotationIntrospectorPair(
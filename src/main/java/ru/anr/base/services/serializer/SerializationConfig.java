@@ -15,8 +15,11 @@
  */
 package ru.anr.base.services.serializer;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import ru.anr.base.domain.api.RawFormatTypes;
 
 /**
  * Definitions of xml/json serialization beans.
@@ -46,4 +49,40 @@ public class SerializationConfig {
     public Serializer jsonSerializer() {
         return new JSONSerializerImpl();
     }
+
+    /**
+     * Defining a Smile (binary JSON) Serializer
+     *
+     * @return Serializer instance
+     */
+    @Bean(name = "smileSerializer")
+    public Serializer smileSerializer() {
+        return new BinarySerializerImpl(new SmileFactory());
+    }
+
+    /**
+     * Defining a CBOR Serializer
+     *
+     * @return Serializer instance
+     */
+    @Bean(name = "cborSerializer")
+    public Serializer cborSerializer() {
+        return new BinarySerializerImpl(new CBORFactory());
+    }
+
+    /**
+     * Defining the registry of serializers for all supported formats. More
+     * serializers can be registered in the resulted bean.
+     *
+     * @return The registry instance
+     */
+    @Bean(name = "serializerRegistry")
+    public SerializerRegistry serializerRegistry() {
+        return new SerializerRegistry()
+                .register(RawFormatTypes.JSON, jsonSerializer())
+                .register(RawFormatTypes.NDJSON, jsonSerializer())
+                .register(RawFormatTypes.XML, xmlSerializer())
+                .register(RawFormatTypes.SMILE, smileSerializer())
+                .register(RawFormatTypes.CBOR, cborSerializer());
+    }
 }
@@ -15,8 +15,23 @@
  */
 package ru.anr.base.services.serializer;
 
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import ru.anr.base.ApplicationException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Iterator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Simple serialization interface.
@@ -63,10 +78,210 @@ public interface Serializer {
      */
     String toStr(Object o);
 
+    /**
+     * Reads an object of specified class directly from the given stream of
+     * bytes (XML/JSON). The stream is not closed. By default, the whole stream
+     * is read to a string in UTF-8 which is parsed by
+     * {@link #fromStr(String, Class)}.
+     *
+     * @param in    The input stream
+     * @param clazz Expected class
+     * @param <S>   Object class
+     * @return Parsed object instance
+     */
+    default <S> S fromStream(InputStream in, Class<S> clazz) {
+        try {
+            return fromStr(new String(in.readAllBytes(), UTF_8), clazz);
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Writes the given object of given format (XML/JSON) directly to the
+     * stream without building an intermediate string. The stream is not closed.
+     * By default, the result of {@link #toStr(Object)} is written in UTF-8.
+     *
+     * @param o   Object
+     * @param out The output stream
+     */
+    default void toStream(Object o, OutputStream out) {
+        write(toStr(o), out);
+    }
+
+    /**
+     * Serializes the given object to bytes of given format. For binary formats
+     * these are the binary data as they are, without any text encoding. By
+     * default, the result of {@link #toStream(Object, OutputStream)} is
+     * taken.
+     *
+     * @param o Object
+     * @return The bytes
+     */
+    default byte[] toBytes(Object o) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        toStream(o, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Generates an object of specified class from bytes built by
+     * {@link #toBytes(Object)}. By default, the bytes are read with
+     * {@link #fromStream(InputStream, Class)}.
+     *
+     * @param b     The bytes
+     * @param clazz Expected class
+     * @param <S>   Object class
+     * @return Parsed object instance
+     */
+    default <S> S fromBytes(byte[] b, Class<S> clazz) {
+        return fromStream(new ByteArrayInputStream(b), clazz);
+    }
+
+    /**
+     * Converts a string built by {@link #toStr(Object)} to the bytes which
+     * {@link #toStream(Object, OutputStream)} writes for the same object. By
+     * default, the string is encoded in UTF-8.
+     *
+     * @param s The serialized string
+     * @return The bytes
+     */
+    default byte[] strToBytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    /**
+     * Converts bytes of the serialized form (e.g. read from a stream) to the
+     * string which {@link #fromStr(String, Class)} accepts. It's the reverse
+     * of {@link #strToBytes(String)}. By default, the bytes are decoded from
+     * UTF-8.
+     *
+     * @param b The bytes
+     * @return The serialized string
+     */
+    default String bytesToStr(byte[] b) {
+        return new String(b, UTF_8);
+    }
+
+    /**
+     * Generates a string of given format (XML/JSON) including only the given
+     * fields (see {@link FieldsFilter} for the syntax). By default, only the
+     * whole object can be written.
+     *
+     * @param o      Object
+     * @param fields The fields to write
+     * @return String
+     * @throws UnsupportedOperationException if some fields are given, but the
+     *                                       serializer doesn't support them
+     */
+    default String toStr(Object o, Collection<String> fields) {
+        if (fields != null && !fields.isEmpty()) {
+            throw new UnsupportedOperationException("Selection of fields is not supported by " + getClass().getName());
+        }
+        return toStr(o);
+    }
+
+    /**
+     * Writes the given object of given format (XML/JSON) to the stream
+     * including only the given fields (see {@link FieldsFilter} for the syntax).
+     * The stream is not closed. By default, the result of
+     * {@link #toStr(Object, Collection)} is written in UTF-8.
+     *
+     * @param o      Object
+     * @param out    The output stream
+     * @param fields The fields to write
+     */
+    default void toStream(Object o, OutputStream out, Collection<String> fields) {
+        write(toStr(o, fields), out);
+    }
+
+    /**
+     * Writes the given items to the stream one by one as they are taken from
+     * the iterator, so the items are never kept in memory all together. The
+     * items are written as one array or as separate documents delimited by a
+     * newline (NDJSON). The stream is not closed.
+     *
+     * @param items  The items to write
+     * @param out    The output stream
+     * @param lines  true, if the items are delimited by a newline, false, if
+     *               they are written as an array
+     * @param fields The fields to write (all fields, if null or empty)
+     */
+    default void toStream(Iterator<?> items, OutputStream out, boolean lines, Collection<String> fields) {
+
+        try (SequenceWriter seq = toSequence(out, lines, fields)) {
+            while (items.hasNext()) {
+                seq.write(items.next());
+            }
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
+    /**
+     * Opens a writer of items to the stream for the cases when the items are
+     * pushed by a producer rather than pulled from an iterator. The items are
+     * written in the same way as with
+     * {@link #toStream(Iterator, OutputStream, boolean, Collection)}. The
+     * sequence must be finished by closing the writer, and the stream is not
+     * closed. By default, the writer of the {@link #mapper()} is used which
+     * writes whole items only.
+     *
+     * @param out    The output stream
+     * @param lines  true, if the items are delimited by a newline, false, if
+     *               they are written as an array
+     * @param fields The fields to write (all fields, if null or empty)
+     * @return The writer
+     * @throws UnsupportedOperationException if some fields are given, but the
+     *                                       serializer doesn't support them
+     */
+    default SequenceWriter toSequence(OutputStream out, boolean lines, Collection<String> fields) {
+
+        if (fields != null && !fields.isEmpty()) {
+            throw new UnsupportedOperationException("Selection of fields is not supported by " + getClass().getName());
+        }
+        ObjectWriter w = mapper().writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        if (lines) {
+            w = w.withRootValueSeparator("\n");
+        }
+        try {
+            return w.writeValues(out).init(!lines);
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
+
     /**
      * Returns an internal {@link ObjectMapper}.
      *
      * @return Instance of {@link ObjectMapper} associated with serializer
      */
     ObjectMapper mapper();
+
+    /**
+     * Builds and caches the serializer and the deserializer of the given type
+     * in advance, so the first conversion is not slower than the others
+     *
+     * @param type The type
+     */
+    default void prepare(Class<?> type) {
+        ObjectMapper m = mapper();
+        m.canSerialize(type);
+        m.canDeserialize(m.constructType(type));
+    }
+
+    /**
+     * Writes the string to the stream in UTF-8
+     *
+     * @param s   The string
+     * @param out The output stream
+     */
+    private static void write(String s, OutputStream out) {
+        try {
+            out.write(s.getBytes(UTF_8));
+        } catch (IOException ex) {
+            throw new ApplicationException(ex);
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-2024 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package ru.anr.base.services.serializer;
+
+import ru.anr.base.domain.api.RawFormatTypes;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A registry of serializers for raw formats. Allows to add or to replace a
+ * serializer for any format except {@link RawFormatTypes#RAW} which is not
+ * serialized at all.
+ *
+ * @created Oct 18, 2026
+ */
+public class SerializerRegistry {
+
+    /**
+     * The registered serializers
+     */
+    private final Map<RawFormatTypes, Serializer> serializers = new ConcurrentHashMap<>();
+
+    /**
+     * The format used for calls between services
+     */
+    private RawFormatTypes compactFormat = RawFormatTypes.SMILE;
+
+    /**
+     * Registers the serializer for the given format (replacing the previous one)
+     *
+     * @param format     The format
+     * @param serializer The serializer
+     * @return This object
+     */
+    public SerializerRegistry register(RawFormatTypes format, Serializer serializer) {
+        serializers.put(format, serializer);
+        return this;
+    }
+
+    /**
+     * Returns the serializer for the given format
+     *
+     * @param format The format
+     * @return The serializer or null for {@link RawFormatTypes#RAW}
+     */
+    public Serializer get(RawFormatTypes format) {
+
+        if (format == RawFormatTypes.RAW) {
+            return null;
+        }
+        Serializer s = serializers.get(format);
+        if (s == null) {
+            throw new UnsupportedOperationException("Unsupported format : " + format);
+        }
+        return s;
+    }
+
+    /**
+     * @return All registered serializers (each one only once, even if it's
+     * registered for several formats)
+     */
+    public Collection<Serializer> getSerializers() {
+        return new LinkedHashSet<>(serializers.values());
+    }
+
+    /**
+     * Returns the most compact format which is supported by this registry. It
+     * is used for calls between services.
+     *
+     * @return The format
+     */
+    public RawFormatTypes getCompactFormat() {
+        return serializers.containsKey(compactFormat) ? compactFormat : RawFormatTypes.JSON;
+    }
+
+    /**
+     * Returns the value of the 'Accept' HTTP header for calls between
+     * services: the compact format is preferred, and JSON is accepted too.
+     *
+     * @return The header value
+     */
+    public String getCompactAccept() {
+        RawFormatTypes f = getCompactFormat();
+        return (f == RawFormatTypes.JSON) ? f.getMediaType() :
+                f.getMediaType() + ", " + RawFormatTypes.JSON.getMediaType() + ";q=0.9";
+    }
+
+    /**
+     * Selects the format of a response by the value of the 'Accept' HTTP
+     * header. The supported format with the highest quality is taken, and if
+     * several formats have the same quality, the compact one is preferred.
+     * Wildcards mean JSON.
+     *
+     * @param accept The header value (JSON, if it's null or empty)
+     * @return The format or null, if none of the accepted formats is supported
+     */
+    public RawFormatTypes negotiate(String accept) {
+
+        if (accept == null || accept.trim().isEmpty()) {
+            return RawFormatTypes.JSON;
+        }
+
+        RawFormatTypes compact = getCompactFormat();
+        RawFormatTypes best = null;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+
+            String[] parts = range.split(";");
+            String type = parts[0].trim();
+            RawFormatTypes f = ("*/*".equals(type) || "application/*".equalsIgnoreCase(type)) ?
+                    RawFormatTypes.JSON : RawFormatTypes.ofMediaType(type);
+            double q = quality(parts);
+
+            if (f != null && q > 0 && (f == RawFormatTypes.RAW || serializers.containsKey(f))
+                    && (q > bestQuality || (q == bestQuality && f == compact))) {
+                best = f;
+                bestQuality = q;
+            }
+        }
+        return best;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String p = parts[i].trim();
+            if (p.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param compactFormat the compactFormat to set
+     */
+    public void setCompactFormat(RawFormatTypes compactFormat) {
+        this.compactFormat = compactFormat;
+    }
+}
@@ -50,6 +50,18 @@ public interface BaseValidator<T> extends Strategy<T> {
         return a.type();
     }
 
+    /**
+     * A validator is applied only to objects of its supported class, if it has
+     * the {@link Validator} annotation.
+     *
+     * @return The array of types
+     */
+    @Override
+    default Class<?>[] applicableTypes() {
+        Validator a = AnnotationUtils.findAnnotation(getClass(), Validator.class);
+        return (a == null) ? Strategy.super.applicableTypes() : new Class<?>[]{a.type()};
+    }
+
     /**
      * Checks additional conditions for using validation for the specific object
      *
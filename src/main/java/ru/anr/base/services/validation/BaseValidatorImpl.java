@@ -39,7 +39,8 @@ public class BaseValidatorImpl<T extends BaseEntity> extends BaseServiceImpl imp
      */
     @Override
     public final StrategyConfig check(T o, Object... params) {
-        return new StrategyConfig(supports(EntityUtils.entityClass(o)) && supports(o), o, StrategyModes.Normal);
+        return (supports(EntityUtils.entityClass(o)) && supports(o)) ?
+                new StrategyConfig(true, o, StrategyModes.Normal) : StrategyConfig.notApplicable();
     }
 
     /**
@@ -21,11 +21,12 @@ import org.springframework.core.annotation.AnnotationUtils;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import ru.anr.base.BaseSpringParent;
+import ru.anr.base.services.index.ComponentIndex;
 import ru.anr.base.services.pattern.Strategy;
 
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
 
 /**
  * An implementation of the {@link ValidationFactory}.
@@ -63,9 +64,12 @@ public class ValidationFactoryImpl extends BaseSpringParent implements Validatio
         if (validators.isEmpty()) {
             synchronized (this.validators) {
                 if (validators.isEmpty()) {
-                    // Load all them once only
-                    Map<String, Object> beans = ctx.getBeansWithAnnotation(ru.anr.base.services.validation.Validator.class);
-                    beans.forEach((name, bean) -> validators.add(((BaseValidator<?>) bean).getSupported(), (Strategy<Object>) bean));
+                    // Load all them once only (with the build-time index if it's available)
+                    List<Object> indexed = ComponentIndex.load(ctx.getClassLoader())
+                            .beans(ctx, ComponentIndex.Kind.VALIDATOR, null, (Class<Object>) (Class<?>) Strategy.class);
+                    Collection<Object> beans = (indexed != null) ? indexed :
+                            ctx.getBeansWithAnnotation(ru.anr.base.services.validation.Validator.class).values();
+                    beans.forEach(bean -> validators.add(((BaseValidator<?>) target(bean)).getSupported(), (Strategy<Object>) bean));
 
                     /*
                      * Sorting the lists of validators according to their order
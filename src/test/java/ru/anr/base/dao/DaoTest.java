@@ -216,4 +216,33 @@ public class DaoTest extends AbstractDaoTestCase {
 
         Assertions.assertEquals("zzz", x.getName());
     }
+
+    /**
+     * The deadline is applied to the queries created by Spring Data: declared
+     * with @Query and derived from the base repository
+     */
+    @Test
+    public void testDeadlineOfDeclaredQueries() {
+
+        newSample("deadline");
+        Object timeout = em.getProperties().get(QueryDeadline.TIMEOUT_HINT);
+        try {
+            QueryDeadline.set(System.currentTimeMillis() + 5000);
+            Assertions.assertEquals(1, mydao.findSamples("deadline").size());
+            Assertions.assertFalse(mydao.findAll().isEmpty());
+
+            // Set to the entity manager of the transaction for the call only
+            Object restored = em.getProperties().get(QueryDeadline.TIMEOUT_HINT);
+            Assertions.assertEquals((timeout == null) ? 0 : timeout, restored);
+
+            // The deadline is missed - the queries are not executed
+            QueryDeadline.set(System.currentTimeMillis() - 1);
+            RuntimeException ex = Assertions.assertThrows(RuntimeException.class, () -> mydao.findSamples("deadline"));
+            Assertions.assertEquals("QueryTimeoutException", ex.getClass().getSimpleName());
+            ex = Assertions.assertThrows(RuntimeException.class, () -> mydao.findAll());
+            Assertions.assertEquals("QueryTimeoutException", ex.getClass().getSimpleName());
+        } finally {
+            QueryDeadline.set(null);
+        }
+    }
 }
@@ -0,0 +1,65 @@
+package ru.anr.base.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.anr.base.BaseParent;
+
+import javax.persistence.Query;
+import javax.persistence.QueryTimeoutException;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for query deadlines
+ *
+ * @created Oct 18, 2026
+ */
+
+public class QueryDeadlineTest extends BaseParent {
+
+    @AfterEach
+    public void cleanup() {
+        QueryDeadline.set(null);
+    }
+
+    /**
+     * A query which only stores its hints
+     */
+    private static Query query(Map<String, Object> hints) {
+
+        return (Query) Proxy.newProxyInstance(Query.class.getClassLoader(), new Class<?>[]{ Query.class },
+                (proxy, method, args) -> {
+                    if ("setHint".equals(method.getName())) {
+                        hints.put((String) args[0], args[1]);
+                        return proxy;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void testSubSecondBudget() {
+
+        Map<String, Object> hints = new HashMap<>();
+
+        // No deadline - no hint
+        QueryDeadline.apply(query(hints));
+        Assertions.assertTrue(hints.isEmpty());
+
+        // A sub-second budget must not turn into 'no timeout'
+        QueryDeadline.set(System.currentTimeMillis() + 300);
+        QueryDeadline.apply(query(hints));
+        Assertions.assertEquals(1000, hints.get(QueryDeadline.TIMEOUT_HINT));
+
+        // Rounded up to whole seconds
+        Assertions.assertEquals(1000, QueryDeadline.timeoutMillis(1));
+        Assertions.assertEquals(2000, QueryDeadline.timeoutMillis(1001));
+        Assertions.assertEquals(5000, QueryDeadline.timeoutMillis(5000));
+
+        // The deadline is missed - the query is not executed
+        QueryDeadline.set(System.currentTimeMillis() - 1);
+        Assertions.assertThrows(QueryTimeoutException.class, () -> QueryDeadline.apply(query(hints)));
+    }
+}
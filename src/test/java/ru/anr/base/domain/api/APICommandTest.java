@@ -205,4 +205,52 @@ public class APICommandTest extends BaseParent {
         Assertions.assertEquals("yyy", cmd.get("value")); // overridden
         Assertions.assertEquals("name", cmd.get("field"));
     }
+
+    /**
+     * Parsing of a raw query string
+     */
+    @Test
+    public void testQueryParsing() {
+
+        QueryParser parser = new QueryParser(list("name", "created"));
+        APICommand cmd = new APICommand(USERS, VER)
+                .query("page=2&per_page=20&fields=id,name,&q=a+b%26c&sort=-created,+name,id&state=New&x", parser);
+
+        RequestModel rq = cmd.getRequest();
+        Assertions.assertEquals(2, rq.page);
+        Assertions.assertEquals(20, rq.perPage);
+        Assertions.assertEquals(list("id", "name"), rq.fields);
+        Assertions.assertEquals("a b&c", rq.search);
+        Assertions.assertEquals(list(new SortModel("created", SortDirection.DESC),
+                new SortModel("name", SortDirection.ASC), new SortModel("id", SortDirection.ASC)), rq.sorted);
+
+        Assertions.assertEquals("New", cmd.get("state"));
+        Assertions.assertEquals("", cmd.get("x"));
+
+        // Known names are reused
+        Assertions.assertSame("name", rq.fields.get(1));
+        Assertions.assertSame("created", rq.sorted.get(0).getField());
+
+        // Wrong numbers are ignored
+        cmd = new APICommand(USERS, VER).query("page=x&per_page=&fields=a%2Cb");
+        Assertions.assertNull(cmd.getRequest().page);
+        Assertions.assertNull(cmd.getRequest().perPage);
+        Assertions.assertEquals(list("a", "b"), cmd.getRequest().fields);
+    }
+
+    /**
+     * Values from a map of parameters are already decoded and must not be
+     * decoded once again
+     */
+    @Test
+    public void testDecodedParams() {
+
+        APICommand cmd = new APICommand(USERS, VER)
+                .params(toMap("fields", "a+b,100%25", "sort", "-created,+name, id"));
+
+        RequestModel rq = cmd.getRequest();
+        Assertions.assertEquals(list("a+b", "100%25"), rq.fields);
+        Assertions.assertEquals(list(new SortModel("created", SortDirection.DESC),
+                new SortModel("name", SortDirection.ASC), new SortModel("id", SortDirection.ASC)), rq.sorted);
+    }
 }
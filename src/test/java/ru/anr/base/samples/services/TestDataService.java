@@ -15,4 +15,8 @@ public interface TestDataService extends BaseDataAwareService {
     Samples doInTransaction(Samples o, boolean reload);
 
     void deleteInTransaction(Samples s);
+
+    int extensionLoads(String ext);
+
+    void doValidate(Object o);
 }
@@ -9,8 +9,13 @@ import org.springframework.transaction.annotation.Transactional;
 import ru.anr.base.samples.domain.Samples;
 import ru.anr.base.services.BaseDataAwareServiceImpl;
 import ru.anr.base.services.ExtensionMarker;
+import ru.anr.base.services.pattern.Strategy;
 
 import javax.annotation.PostConstruct;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Description ...
@@ -21,12 +26,39 @@ import javax.annotation.PostConstruct;
 @Component("TestDataService")
 public class TestDataServiceImpl extends BaseDataAwareServiceImpl implements TestDataService {
 
+    private final Map<String, AtomicInteger> loads = new ConcurrentHashMap<>();
+
     @PostConstruct
     public void init() {
         registerExtensions("default", loadExtensions(ExtensionMarker.class, "default")); // 2 extensions
         registerExtensions("test", loadExtensions(ExtensionMarker.class, "test")); // 1 extensions
     }
 
+    @Override
+    protected List<Strategy<Object>> loadExtensions(Class<ExtensionMarker> marker, String extensionId) {
+        loads.computeIfAbsent(extensionId, k -> new AtomicInteger()).incrementAndGet();
+        return super.loadExtensions(marker, extensionId);
+    }
+
+    @Override
+    protected List<Strategy<Object>> loadValidators(Class<?> clazz) {
+        loads.computeIfAbsent(clazz.getName(), k -> new AtomicInteger()).incrementAndGet();
+        if (clazz == Reentrant.class) {
+            validate(new Reentrant()); // As a bean created while loading could do
+        }
+        return super.loadValidators(clazz);
+    }
+
+    @Override
+    public void doValidate(Object o) {
+        validate(o);
+    }
+
+    @Override
+    public int extensionLoads(String ext) {
+        return loads.containsKey(ext) ? loads.get(ext).get() : 0;
+    }
+
     @Override
     public Object doExtension(String ext) {
         return (ext == null) ? processExtensions(null) : processParametrizedExtensions(ext, null, (Object[]) null);
@@ -45,4 +77,10 @@ public class TestDataServiceImpl extends BaseDataAwareServiceImpl implements Tes
         Samples o = reload(s);
         dao().delete(o);
     }
+
+    /**
+     * An object which is validated while its validators are loaded
+     */
+    public static class Reentrant {
+    }
 }
@@ -0,0 +1,35 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A command with cached GET responses which counts its invocations.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Cached", cacheSeconds = 60)
+@Component("CachedV1ApiCommand")
+public class CachedV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * The number of invocations
+     */
+    public static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResponseModel get(APICommand cmd) {
+        ResponseModel m = new ResponseModel();
+        m.message = "value " + cmd.get("x", "");
+        m.total = (long) COUNTER.incrementAndGet();
+        return m;
+    }
+}
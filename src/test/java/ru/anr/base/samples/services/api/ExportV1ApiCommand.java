@@ -0,0 +1,32 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A command returning a stream of models.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Export")
+@Component("ExportV1ApiCommand")
+public class ExportV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Stream<ResponseModel> get(APICommand cmd) {
+        return IntStream.rangeClosed(1, 3).mapToObj(i -> {
+            ResponseModel m = new ResponseModel();
+            m.message = "row " + i;
+            return m;
+        });
+    }
+}
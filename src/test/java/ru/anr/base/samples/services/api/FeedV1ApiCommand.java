@@ -0,0 +1,77 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reactive command which publishes items asynchronously as they are
+ * requested and remembers the largest request.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Feed")
+@Component("FeedV1ApiCommand")
+public class FeedV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * The number of published items
+     */
+    public static final int COUNT = 100;
+
+    /**
+     * The largest number of items requested at once
+     */
+    public static final AtomicLong MAX_REQUEST = new AtomicLong();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Flow.Publisher<ResponseModel> get(APICommand cmd) {
+        return subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+
+            private final AtomicLong requested = new AtomicLong();
+            private volatile boolean cancelled;
+            private int next = 1;
+
+            @Override
+            public void request(long n) {
+                MAX_REQUEST.accumulateAndGet(n, Math::max);
+                if (requested.getAndAdd(n) == 0) {
+                    ForkJoinPool.commonPool().execute(this::drain);
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled = true;
+            }
+
+            private void drain() {
+                long emitted;
+                do {
+                    long r = requested.get();
+                    emitted = 0;
+                    while (emitted < r && next <= COUNT && !cancelled) {
+                        ResponseModel m = new ResponseModel();
+                        m.message = "item " + next++;
+                        subscriber.onNext(m);
+                        emitted++;
+                    }
+                    if (next > COUNT && !cancelled) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                } while (requested.addAndGet(-emitted) != 0);
+            }
+        });
+    }
+}
@@ -0,0 +1,42 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A write command which counts its executions.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Idempotent")
+@Component("IdempotentV1ApiCommand")
+public class IdempotentV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * The number of executions
+     */
+    public static final AtomicInteger COUNTER = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResponseModel post(APICommand cmd) {
+        ResponseModel m = new ResponseModel();
+        m.total = (long) COUNTER.incrementAndGet();
+        return m;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResponseModel put(APICommand cmd) {
+        return post(cmd);
+    }
+}
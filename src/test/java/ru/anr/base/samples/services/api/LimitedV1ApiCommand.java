@@ -0,0 +1,47 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.ApplicationException;
+import ru.anr.base.domain.api.APICommand;
+import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A command with one concurrent execution at most which waits for a signal
+ * to finish.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Limited", maxConcurrency = 1)
+@Component("LimitedV1ApiCommand")
+public class LimitedV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * The signal that an invocation is started
+     */
+    public static volatile CountDownLatch started = new CountDownLatch(0);
+
+    /**
+     * The signal to finish invocations
+     */
+    public static volatile CountDownLatch release = new CountDownLatch(0);
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResponseModel get(APICommand cmd) {
+        started.countDown();
+        try {
+            release.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationException(ex);
+        }
+        return new ResponseModel();
+    }
+}
@@ -0,0 +1,32 @@
+package ru.anr.base.samples.services.api;
+
+import org.springframework.stereotype.Component;
+import ru.anr.base.services.api.AbstractApiCommandStrategyImpl;
+import ru.anr.base.services.api.ApiStrategy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A command which counts reads of its configuration, i.e. scans of the
+ * registered commands.
+ *
+ * @created Oct 18, 2026
+ */
+@ApiStrategy(version = "v1", id = "Probe")
+@Component("ProbeV1ApiCommand")
+public class ProbeV1ApiCommand extends AbstractApiCommandStrategyImpl {
+
+    /**
+     * The number of reads of the configuration
+     */
+    public static final AtomicInteger READS = new AtomicInteger();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ApiStrategy config() {
+        READS.incrementAndGet();
+        return super.config();
+    }
+}
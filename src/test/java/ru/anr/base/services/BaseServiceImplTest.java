@@ -13,6 +13,8 @@ import org.springframework.security.acls.domain.PrincipalSid;
 import org.springframework.security.authentication.TestingAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import ru.anr.base.dao.SecuredPageImpl;
 import ru.anr.base.dao.repository.SecuredRepository;
 import ru.anr.base.domain.api.models.BaseObjectModel;
@@ -23,12 +25,21 @@ import ru.anr.base.samples.domain.Samples;
 import ru.anr.base.samples.domain.TestStates;
 import ru.anr.base.samples.services.ACLSecured;
 import ru.anr.base.samples.services.TestDataService;
+import ru.anr.base.samples.services.TestDataServiceImpl;
 import ru.anr.base.services.security.ACLManager;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Test for checking Spring {@link org.springframework.core.env.Environment} to
@@ -143,6 +154,52 @@ public class BaseServiceImplTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals("[3, 1]", nullSafe(service.doExtension("default")));
     }
 
+    /**
+     * Extensions are loaded once even if they are requested concurrently
+     */
+    @Test
+    public void testConcurrentExtensionLoading() throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return service.doExtension("concurrent");
+                }));
+            }
+            start.countDown();
+            for (Future<Object> f : futures) {
+                Assertions.assertEquals(list(), f.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assertions.assertEquals(1, service.extensionLoads("concurrent"));
+    }
+
+    /**
+     * Loading of validators can't validate objects of the same class: the
+     * validation would be skipped otherwise
+     */
+    @Test
+    public void testReentrantValidatorLoading() {
+
+        String name = TestDataServiceImpl.Reentrant.class.getName();
+
+        IllegalStateException ex = Assertions.assertThrows(IllegalStateException.class,
+                () -> service.doValidate(new TestDataServiceImpl.Reentrant()));
+        Assertions.assertEquals("Extensions 'class " + name + "' are required by their own loading, being loaded: [class "
+                + name + "]", ex.getMessage());
+
+        // Nothing has been registered, so it fails again
+        Assertions.assertThrows(IllegalStateException.class,
+                () -> service.doValidate(new TestDataServiceImpl.Reentrant()));
+        Assertions.assertEquals(2, service.extensionLoads(name));
+    }
+
     @Autowired
     protected MyDao mydao;
 
@@ -232,6 +289,33 @@ public class BaseServiceImplTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals("KKK", first(list).name);
     }
 
+    /**
+     * Tests for {@link BaseServiceImpl#toModel(Stream, Class, Class)} inside a
+     * transaction
+     */
+    @Test
+    public void testToModelStream() {
+
+        Samples s = dao.save(new Samples());
+        List<SampleModel> list = BaseServiceImpl.toModel(Stream.of(s), SampleModel.class, Samples.class)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(s.getId(), first(list).id);
+    }
+
+    /**
+     * A stream over objects in memory needs no transaction
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testToModelStreamWithoutTransaction() {
+
+        Samples s = new Samples();
+        s.setId(7L);
+        List<SampleModel> list = BaseServiceImpl.toModel(Stream.of(s), SampleModel.class, Samples.class)
+                .collect(Collectors.toList());
+        Assertions.assertEquals(7L, first(list).id);
+    }
+
     /**
      * Tests for {@link BaseServiceImpl#isSupported(SupportableService)}
      */
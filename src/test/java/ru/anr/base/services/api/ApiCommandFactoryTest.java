@@ -1,16 +1,61 @@
 package ru.anr.base.services.api;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.util.DigestUtils;
+import ru.anr.base.dao.QueryDeadline;
 import ru.anr.base.domain.api.APICommand;
 import ru.anr.base.domain.api.APIException;
+import ru.anr.base.domain.api.ContentEncoding;
+import ru.anr.base.domain.api.MethodTypes;
 import ru.anr.base.domain.api.RawFormatTypes;
 import ru.anr.base.domain.api.models.RequestModel;
 import ru.anr.base.domain.api.models.ResponseModel;
+import ru.anr.base.samples.services.api.CachedV1ApiCommand;
+import ru.anr.base.samples.services.api.CoalescedV1ApiCommand;
 import ru.anr.base.samples.services.api.EmptyV1ApiCommand;
+import ru.anr.base.samples.services.api.ExportV1ApiCommand;
+import ru.anr.base.samples.services.api.FeedV1ApiCommand;
+import ru.anr.base.samples.services.api.IdempotentV1ApiCommand;
+import ru.anr.base.samples.services.api.LimitedV1ApiCommand;
+import ru.anr.base.samples.services.api.ObjectsApiCommand;
+import ru.anr.base.samples.services.api.ProbeV1ApiCommand;
 import ru.anr.base.services.BaseLocalServiceTestCase;
+import ru.anr.base.services.api.metrics.ApiMetrics;
+import ru.anr.base.services.api.metrics.ApiMetricsRegistry;
+import ru.anr.base.services.api.metrics.PrometheusExporter;
+import ru.anr.base.services.serializer.SerializerRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Tests for API commands
@@ -31,6 +76,14 @@ public class ApiCommandFactoryTest extends BaseLocalServiceTestCase {
     @Qualifier("apiCommandFactory")
     private APICommandFactory factory;
 
+    @Autowired
+    @Qualifier("apiWarmUp")
+    private ApiWarmUp warmUp;
+
+    @Autowired
+    @Qualifier("serializerRegistry")
+    private SerializerRegistry serializers;
+
     /**
      * Use case : Ping command
      */
@@ -94,6 +147,184 @@ public class ApiCommandFactoryTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals("hello x GET", m.message);
     }
 
+    /**
+     * Use case : Ping command with the request and the response given as streams
+     */
+    @Test
+    public void testOfPingCommandStreaming() {
+
+        APICommand ping = new APICommand(PING, "v1").method(GET);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        APICommand rs = factory.process(ping,
+                new ByteArrayInputStream("{\"value\": \"hello s\"}".getBytes(StandardCharsets.UTF_8)), out);
+        ResponseModel m = rs.getResponse();
+
+        Assertions.assertEquals("hello s GET", m.message);
+        Assertions.assertNull(rs.getRawModel());
+        Assertions.assertEquals("{\"code\":0,\"message\":\"hello s GET\"}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Use case : a command returning a stream of models
+     */
+    @Test
+    public void testStreamedResponse() {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.process(new APICommand("Export", "v1").method(GET).responseFormat(RawFormatTypes.NDJSON), null, out);
+
+        Assertions.assertEquals("{\"message\":\"row 1\"}\n{\"message\":\"row 2\"}\n{\"message\":\"row 3\"}",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        out = new ByteArrayOutputStream();
+        factory.process(new APICommand("Export", "v1").method(GET), null, out);
+        Assertions.assertEquals("[{\"message\":\"row 1\"},{\"message\":\"row 2\"},{\"message\":\"row 3\"}]",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        // Without a stream to write into
+        APICommand rs = factory.process(new APICommand("Export", "v1").method(GET));
+        Assertions.assertEquals("[{\"message\":\"row 1\"},{\"message\":\"row 2\"},{\"message\":\"row 3\"}]",
+                rs.getRawModel());
+    }
+
+    @Test
+    public void testReactiveResponse() {
+
+        FeedV1ApiCommand.MAX_REQUEST.set(0);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.process(new APICommand("Feed", "v1").method(GET).responseFormat(RawFormatTypes.NDJSON), null, out);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        Assertions.assertEquals(FeedV1ApiCommand.COUNT, lines.length);
+        Assertions.assertEquals("{\"message\":\"item 1\"}", lines[0]);
+        Assertions.assertEquals("{\"message\":\"item 100\"}", lines[99]);
+
+        // Never more than the prefetch
+        Assertions.assertTrue(FeedV1ApiCommand.MAX_REQUEST.get() <= 32);
+
+        // Not waiting for the items
+        ByteArrayOutputStream async = new ByteArrayOutputStream();
+        CompletableFuture<APICommand> f = factory.processReactive(new APICommand("Feed", "v1").method(GET), null, async);
+        f.join();
+        Assertions.assertTrue(new String(async.toByteArray(), StandardCharsets.UTF_8)
+                .startsWith("[{\"message\":\"item 1\"},{\"message\":\"item 2\"}"));
+
+        // Collected to a string
+        APICommand rs = factory.process(new APICommand("Feed", "v1").method(GET));
+        Assertions.assertTrue(rs.getRawModel().endsWith("{\"message\":\"item 100\"}]"));
+    }
+
+    @Test
+    public void testDecompressionLimit() throws IOException {
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (GZIPOutputStream z = new GZIPOutputStream(body)) {
+            z.write(("{\"value\": \"" + "z".repeat(100_000) + "\"}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        APICommandFactoryImpl impl = AopTestUtils.getTargetObject(factory);
+        impl.setMaxRequestSize(1024);
+        try {
+            APIException ex = Assertions.assertThrows(APIException.class, () -> factory.process(
+                    new APICommand(PING, "v1").method("POST").requestEncoding(ContentEncoding.GZIP),
+                    new ByteArrayInputStream(body.toByteArray()), new ByteArrayOutputStream()));
+            Assertions.assertEquals(APIException.ERROR_CLIENT, ex.getErrorCode());
+        } finally {
+            impl.setMaxRequestSize(16L * 1024 * 1024);
+        }
+    }
+
+    @Test
+    public void testCompressedStreams() throws IOException {
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (GZIPOutputStream z = new GZIPOutputStream(body)) {
+            z.write("{\"value\": \"hello z\"}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        factory.process(new APICommand(PING, "v1").method("POST")
+                        .requestEncoding(ContentEncoding.GZIP).responseEncoding(ContentEncoding.GZIP),
+                new ByteArrayInputStream(body.toByteArray()), out);
+        Assertions.assertTrue(IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray())),
+                StandardCharsets.UTF_8).contains("hello z POST"));
+
+        out = new ByteArrayOutputStream();
+        factory.process(new APICommand("Export", "v1").method(GET).responseEncoding(ContentEncoding.DEFLATE), null, out);
+        Assertions.assertEquals("[{\"message\":\"row 1\"},{\"message\":\"row 2\"},{\"message\":\"row 3\"}]",
+                IOUtils.toString(new InflaterInputStream(new ByteArrayInputStream(out.toByteArray())),
+                        StandardCharsets.UTF_8));
+
+        // The compressed bytes of cached responses are cached too
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        factory.process(new APICommand("Cached", "v1").method(GET).context("x", "z")
+                .responseEncoding(ContentEncoding.GZIP), null, out1);
+        factory.process(new APICommand("Cached", "v1").method(GET).context("x", "z")
+                .responseEncoding(ContentEncoding.GZIP), null, out2);
+
+        Assertions.assertArrayEquals(out1.toByteArray(), out2.toByteArray());
+        Assertions.assertTrue(IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(out2.toByteArray())),
+                StandardCharsets.UTF_8).contains("value z"));
+    }
+
+    @Test
+    public void testCachedBinaryResponses() {
+
+        ByteArrayOutputStream out1 = new ByteArrayOutputStream();
+        ByteArrayOutputStream out2 = new ByteArrayOutputStream();
+        APICommand rs = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "smile")
+                .responseFormat(RawFormatTypes.SMILE), null, out1);
+        factory.process(new APICommand("Cached", "v1").method(GET).context("x", "smile")
+                .responseFormat(RawFormatTypes.SMILE), null, out2);
+
+        // The same binary data as the uncached model written to a stream
+        ResponseModel m = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "smile")
+                .responseFormat(RawFormatTypes.SMILE)).getResponse();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        serializers.get(RawFormatTypes.SMILE).toStream(m, expected);
+
+        Assertions.assertArrayEquals(expected.toByteArray(), out1.toByteArray());
+        Assertions.assertArrayEquals(expected.toByteArray(), out2.toByteArray());
+        Assertions.assertEquals("value smile", serializers.get(RawFormatTypes.SMILE)
+                .fromStream(new ByteArrayInputStream(out2.toByteArray()), ResponseModel.class).message);
+        Assertions.assertEquals('"' + DigestUtils.md5DigestAsHex(expected.toByteArray()) + '"', rs.getEtag());
+    }
+
+    @Test
+    public void testNegotiatedFormat() {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        APICommand rs = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "accept")
+                .accept(serializers.getCompactAccept()), null, out);
+
+        Assertions.assertEquals(RawFormatTypes.SMILE, rs.getResponseFormat());
+        Assertions.assertEquals("value accept", serializers.get(RawFormatTypes.SMILE)
+                .fromBytes(out.toByteArray(), ResponseModel.class).message);
+
+        APIException ex = Assertions.assertThrows(APIException.class,
+                () -> factory.process(new APICommand(PING, "v1").method(GET).accept("image/png")));
+        Assertions.assertEquals(APIException.ERROR_CLIENT, ex.getErrorCode());
+
+        Assertions.assertEquals(RawFormatTypes.CBOR,
+                new APICommand(PING, "v1").contentType("application/cbor").getRequestFormat());
+    }
+
+    /**
+     * Use case : Ping command with the 'fields' query parameter
+     */
+    @Test
+    public void testOfPingCommandFields() {
+
+        APICommand ping = new APICommand(PING, "v1").params(toMap("fields", "message"));
+        ping = ping.addRaw("{\"value\": \"hello f\"}").method(GET);
+
+        APICommand rs = factory.process(ping);
+        Assertions.assertEquals("{\"code\":0,\"message\":\"hello f GET\"}", rs.getRawModel());
+    }
+
     /**
      * Use case : Ping command
      */
@@ -194,6 +425,22 @@ public class ApiCommandFactoryTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals("hello DELETE", m.message);
     }
 
+    /**
+     * Use case : a method which is not implemented by the command
+     */
+    @Test
+    public void testNotSupportedMethod() {
+
+        Assertions.assertEquals(EnumSet.of(MethodTypes.Get, MethodTypes.Post, MethodTypes.Put, MethodTypes.Delete),
+                factory.allowedMethods(PING, "v1"));
+
+        APICommand rs = factory.process(new APICommand(PING, "v1").addRaw("{\"value\": \"hello\"}").method("PATCH"));
+        ResponseModel m = rs.getResponse();
+
+        Assertions.assertEquals(APIException.ERROR_METHOD_NOT_SUPPORTED, m.code);
+        Assertions.assertEquals("Method 'PATCH' not supported", m.message);
+    }
+
     /**
      * Use case : command with constraint violation inside
      */
@@ -214,10 +461,544 @@ public class ApiCommandFactoryTest extends BaseLocalServiceTestCase {
         }
     }
 
+    /**
+     * Use case : commands are resolved case-insensitively and unknown commands
+     * are rejected on every call
+     */
+    @Test
+    public void testCommandRouting() {
+
+        APICommand ping = new APICommand("PING", "V1");
+        ping = ping.addRaw("{\"value\": \"hello\"}").method(GET);
+
+        ResponseModel m = factory.process(ping).getResponse();
+        Assertions.assertEquals("hello GET", m.message);
+
+        for (int i = 0; i < 2; i++) {
+            APICommand unknown = new APICommand("Unknown", "v1").method(GET);
+            try {
+                factory.process(unknown);
+                Assertions.fail();
+            } catch (IllegalArgumentException ex) {
+                Assertions.assertEquals("Command 'unknown' not found", ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Use case : alternating unknown commands don't cause rescans of the
+     * context
+     */
+    @Test
+    public void testUnknownCommandsNotRescanned() {
+
+        for (String id : list("unknown-a", "unknown-b")) {
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> factory.process(new APICommand(id, "v1").method(GET)));
+        }
+
+        int reads = ProbeV1ApiCommand.READS.get();
+        for (int i = 0; i < 4; i++) {
+            String id = (i % 2 == 0) ? "unknown-a" : "unknown-b";
+            Assertions.assertThrows(IllegalArgumentException.class,
+                    () -> factory.process(new APICommand(id, "v1").method(GET)));
+        }
+        Assertions.assertEquals(reads, ProbeV1ApiCommand.READS.get());
+    }
+
+    /**
+     * Use case : asynchronous processing of commands
+     */
+    @Test
+    public void testProcessAsync() {
+
+        CompletableFuture<APICommand> ping = factory.processAsync(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello\"}").method(GET));
+        CompletableFuture<APICommand> error = factory.processAsync(new APICommand("Error", "v1").method(GET));
+
+        Assertions.assertEquals("hello GET", ((ResponseModel) ping.join().getResponse()).message);
+
+        CompletionException ex = Assertions.assertThrows(CompletionException.class, error::join);
+        Assertions.assertTrue(ex.getCause() instanceof APIException);
+    }
+
+    /**
+     * Use case : a batch of commands with an error inside
+     */
+    @Test
+    public void testBatch() {
+
+        List<APICommand> commands = list(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello 1\"}").method(GET),
+                new APICommand("Error", "v1").method(GET),
+                new APICommand(PING, "v2").addRaw("{\"value\": \"hello 2\"}").method(GET));
+
+        List<APICommand> rs = factory.batch(commands);
+        Assertions.assertEquals(3, rs.size());
+
+        Assertions.assertEquals("hello 1 GET", ((ResponseModel) rs.get(0).getResponse()).message);
+        Assertions.assertEquals("{\"code\":5,\"message\":\"Exception\"}", rs.get(1).getRawModel());
+        Assertions.assertEquals("hello 2 Get", ((ResponseModel) rs.get(2).getResponse()).message);
+    }
+
+    /**
+     * Use case : a batch in a single transaction is all or nothing
+     */
+    @Test
+    public void testBatchInTransaction() {
+
+        List<APICommand> rs = factory.batchInTransaction(list(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello 1\"}").method(GET),
+                new APICommand(PING, "v2").addRaw("{\"value\": \"hello 2\"}").method(GET)));
+
+        Assertions.assertEquals(2, rs.size());
+        Assertions.assertEquals("hello 1 GET", ((ResponseModel) rs.get(0).getResponse()).message);
+        Assertions.assertEquals("hello 2 Get", ((ResponseModel) rs.get(1).getResponse()).message);
+
+        // The error of the failed command, not an UnexpectedRollbackException on commit
+        APIException ex = Assertions.assertThrows(APIException.class, () -> factory.batchInTransaction(list(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello 1\"}").method(GET),
+                new APICommand("Error", "v1").method(GET),
+                new APICommand(PING, "v2").addRaw("{\"value\": \"hello 2\"}").method(GET))));
+        Assertions.assertEquals(5, ex.getErrorCode());
+    }
+
+    /**
+     * Use case : cached GET responses with ETags
+     */
+    @Test
+    public void testCachedResponses() {
+
+        CachedV1ApiCommand.COUNTER.set(0);
+
+        APICommand rs1 = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "1"));
+        APICommand rs2 = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "1"));
+
+        Assertions.assertEquals(1, CachedV1ApiCommand.COUNTER.get());
+        Assertions.assertEquals(rs1.getRawModel(), rs2.getRawModel());
+        Assertions.assertNotNull(rs1.getEtag());
+        Assertions.assertEquals(rs1.getEtag(), rs2.getEtag());
+        Assertions.assertFalse(rs2.isNotModified());
+
+        // Another parameter - another response
+        APICommand rs3 = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "2"));
+        Assertions.assertEquals(2, CachedV1ApiCommand.COUNTER.get());
+        Assertions.assertNotEquals(rs1.getEtag(), rs3.getEtag());
+
+        // The client has the same response
+        APICommand rs4 = factory.process(new APICommand("Cached", "v1").method(GET).context("x", "1")
+                .ifNoneMatch(rs1.getEtag()));
+        Assertions.assertTrue(rs4.isNotModified());
+        Assertions.assertEquals(2, CachedV1ApiCommand.COUNTER.get());
+
+        // Each command gets its own copy of the model
+        Assertions.assertNotSame(rs1.getResponse(), rs2.getResponse());
+        Assertions.assertEquals("value 1", rs2.<ResponseModel>getResponse().message);
+
+        // Other users and locales don't share responses
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken("other", "x"));
+        try {
+            factory.process(new APICommand("Cached", "v1").method(GET).context("x", "1"));
+            Assertions.assertEquals(3, CachedV1ApiCommand.COUNTER.get());
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+
+        Locale locale = LocaleContextHolder.getLocale();
+        LocaleContextHolder.setLocale(Locale.JAPAN);
+        try {
+            factory.process(new APICommand("Cached", "v1").method(GET).context("x", "1"));
+            Assertions.assertEquals(4, CachedV1ApiCommand.COUNTER.get());
+        } finally {
+            LocaleContextHolder.setLocale(locale);
+        }
+    }
+
+    @Test
+    public void testWarmUp() {
+
+        CompletableFuture<Void> done = warmUp.warmUp();
+        done.join();
+
+        Assertions.assertSame(done, warmUp.getCompletion());
+        Assertions.assertFalse(done.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testErrorCodeMessages() {
+
+        LocaleContextHolder.setLocale(Locale.US);
+        APICommand rs = factory.error(APIException.withCode("Oops", APIException.ERROR_SYSTEM));
+        Assertions.assertEquals("A system error", ((ResponseModel) rs.getResponse()).message);
+
+        // No message for the code
+        rs = factory.error(APIException.withCode("Oops", 5));
+        Assertions.assertEquals("Oops", ((ResponseModel) rs.getResponse()).message);
+        rs = factory.error(APIException.withCode("Oops again", 5));
+        Assertions.assertEquals("Oops again", ((ResponseModel) rs.getResponse()).message);
+
+        // Resolved for each locale
+        LocaleContextHolder.setLocale(new Locale("ru", "RU"));
+        try {
+            rs = factory.error(APIException.withCode("Oops", APIException.ERROR_SYSTEM));
+            Assertions.assertEquals("Системная ошибка", ((ResponseModel) rs.getResponse()).message);
+        } finally {
+            LocaleContextHolder.setLocale(Locale.US);
+        }
+    }
+
+    @Test
+    public void testIdempotencyKey() {
+
+        IdempotentV1ApiCommand.COUNTER.set(0);
+        String key = guid();
+
+        APICommand first = factory.process(new APICommand("Idempotent", "v1").addRaw("{}").method("POST")
+                .idempotencyKey(key));
+        APICommand retry = factory.process(new APICommand("Idempotent", "v1").addRaw("{}").method("POST")
+                .idempotencyKey(key));
+
+        Assertions.assertEquals(1, IdempotentV1ApiCommand.COUNTER.get());
+        Assertions.assertEquals(first.getRawModel(), retry.getRawModel());
+        Assertions.assertEquals(1L, ((ResponseModel) retry.getResponse()).total);
+
+        // The same key for another request
+        APIException ex = Assertions.assertThrows(APIException.class, () -> factory.process(
+                new APICommand("Idempotent", "v1").addRaw("{\"id\": 1}").method("POST").idempotencyKey(key)));
+        Assertions.assertEquals(APIException.ERROR_CLIENT, ex.getErrorCode());
+
+        // No key
+        factory.process(new APICommand("Idempotent", "v1").addRaw("{}").method("POST"));
+        Assertions.assertEquals(2, IdempotentV1ApiCommand.COUNTER.get());
+
+        // The same key and body of another user are not replayed
+        SecurityContextHolder.getContext().setAuthentication(
+                new TestingAuthenticationToken("other", "password", "ROLE_USER"));
+        APICommand other = factory.process(new APICommand("Idempotent", "v1").addRaw("{}").method("POST")
+                .idempotencyKey(key));
+        Assertions.assertEquals(3L, ((ResponseModel) other.getResponse()).total);
+
+        // The same key and body for another resource
+        String putKey = guid();
+        factory.process(new APICommand("Idempotent", "v1").context("id", 1).addRaw("{}").method("PUT")
+                .idempotencyKey(putKey));
+        ex = Assertions.assertThrows(APIException.class, () -> factory.process(
+                new APICommand("Idempotent", "v1").context("id", 2).addRaw("{}").method("PUT")
+                        .idempotencyKey(putKey)));
+        Assertions.assertEquals(APIException.ERROR_CLIENT, ex.getErrorCode());
+        Assertions.assertEquals(4, IdempotentV1ApiCommand.COUNTER.get());
+    }
+
+    @Test
+    public void testIdempotencyKeyOfStreams() {
+
+        IdempotentV1ApiCommand.COUNTER.set(0);
+        String key = guid();
+
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        factory.process(new APICommand("Idempotent", "v1").method("POST").idempotencyKey(key),
+                new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), first);
+        ByteArrayOutputStream retry = new ByteArrayOutputStream();
+        factory.processReactive(new APICommand("Idempotent", "v1").method("POST").idempotencyKey(key),
+                new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)), retry).join();
+
+        Assertions.assertEquals(1, IdempotentV1ApiCommand.COUNTER.get());
+        Assertions.assertArrayEquals(first.toByteArray(), retry.toByteArray());
+        Assertions.assertTrue(retry.toString(StandardCharsets.UTF_8).contains("\"total\":1"));
+
+        // The same key for another body
+        APIException ex = Assertions.assertThrows(APIException.class, () -> factory.process(
+                new APICommand("Idempotent", "v1").method("POST").idempotencyKey(key),
+                new ByteArrayInputStream("{\"id\": 1}".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream()));
+        Assertions.assertEquals(APIException.ERROR_CLIENT, ex.getErrorCode());
+        Assertions.assertEquals(1, IdempotentV1ApiCommand.COUNTER.get());
+    }
+
+    @Test
+    public void testCoalescedRequests() throws InterruptedException {
+
+        CoalescedV1ApiCommand.COUNTER.set(0);
+        CoalescedV1ApiCommand.started = new CountDownLatch(1);
+        CoalescedV1ApiCommand.release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<CompletableFuture<APICommand>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> factory.process(new APICommand("Coalesced", "v1").method(GET)), pool));
+        }
+        // The first request is in progress, and the others wait for it
+        Assertions.assertTrue(CoalescedV1ApiCommand.started.await(5, TimeUnit.SECONDS));
+        APICommandFactoryImpl impl = AopTestUtils.getTargetObject(factory);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (impl.getCoalescedWaiting() < 3) {
+                Thread.onSpinWait();
+            }
+        });
+        CoalescedV1ApiCommand.release.countDown();
+
+        List<APICommand> results = futures.stream().map(CompletableFuture::join).collect(Collectors.toList());
+        pool.shutdown();
+
+        Assertions.assertEquals(1, CoalescedV1ApiCommand.COUNTER.get());
+        results.forEach(rs -> Assertions.assertEquals(results.get(0).getRawModel(), rs.getRawModel()));
+        results.subList(1, results.size())
+                .forEach(rs -> Assertions.assertNotSame(results.get(0).getResponse(), rs.getResponse()));
+
+        // Not cached: the next request is processed again
+        factory.process(new APICommand("Coalesced", "v1").method(GET));
+        Assertions.assertEquals(2, CoalescedV1ApiCommand.COUNTER.get());
+    }
+
+    @Test
+    public void testCoalescedStreams() throws InterruptedException {
+
+        CoalescedV1ApiCommand.COUNTER.set(0);
+        CoalescedV1ApiCommand.started = new CountDownLatch(1);
+        CoalescedV1ApiCommand.release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        List<ByteArrayOutputStream> outs = new ArrayList<>();
+        List<CompletableFuture<APICommand>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outs.add(out);
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> factory.process(new APICommand("Coalesced", "v1").method(GET), null, out), pool));
+        }
+        Assertions.assertTrue(CoalescedV1ApiCommand.started.await(5, TimeUnit.SECONDS));
+        APICommandFactoryImpl impl = AopTestUtils.getTargetObject(factory);
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            while (impl.getCoalescedWaiting() < 2) {
+                Thread.onSpinWait();
+            }
+        });
+        CoalescedV1ApiCommand.release.countDown();
+
+        futures.forEach(CompletableFuture::join);
+        pool.shutdown();
+
+        Assertions.assertEquals(1, CoalescedV1ApiCommand.COUNTER.get());
+        Assertions.assertTrue(outs.get(0).size() > 0);
+        outs.forEach(o -> Assertions.assertArrayEquals(outs.get(0).toByteArray(), o.toByteArray()));
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws InterruptedException {
+
+        LimitedV1ApiCommand.started = new CountDownLatch(1);
+        LimitedV1ApiCommand.release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        CompletableFuture<APICommand> first = CompletableFuture.supplyAsync(
+                () -> factory.process(new APICommand("Limited", "v1").method(GET)), pool);
+        Assertions.assertTrue(LimitedV1ApiCommand.started.await(5, TimeUnit.SECONDS));
+
+        APIException ex = Assertions.assertThrows(APIException.class,
+                () -> factory.process(new APICommand("Limited", "v1").method(GET)));
+        Assertions.assertEquals(APIException.ERROR_TOO_MANY_REQUESTS, ex.getErrorCode());
+
+        // Rescans for unknown commands and refreshes of other contexts don't
+        // reset the limits
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> factory.process(new APICommand("NoSuchLimited", "v1").method(GET)));
+        APICommandFactoryImpl impl = AopTestUtils.getTargetObject(factory);
+        impl.onApplicationEvent(new ContextRefreshedEvent(new GenericApplicationContext()));
+
+        Assertions.assertThrows(APIException.class,
+                () -> factory.process(new APICommand("Limited", "v1").method(GET)));
+
+        LimitedV1ApiCommand.release.countDown();
+        Assertions.assertEquals(0, first.join().<ResponseModel>getResponse().code);
+        pool.shutdown();
+
+        // The permit is returned
+        Assertions.assertEquals(0, factory.process(new APICommand("Limited", "v1").method(GET))
+                .<ResponseModel>getResponse().code);
+    }
+
+    @Test
+    public void testRateLimit() {
+
+        ApiThrottle throttle = new ApiThrottle(0, 2);
+        ApiStrategy a = ApiUtils.extract(CachedV1ApiCommand.class);
+
+        throttle.acquire(a);
+        throttle.acquire(a);
+
+        APIException ex = Assertions.assertThrows(APIException.class, () -> throttle.acquire(a));
+        Assertions.assertEquals(APIException.ERROR_TOO_MANY_REQUESTS, ex.getErrorCode());
+    }
+
+    @Test
+    public void testThrottleKeptOnRebuild() {
+
+        ApiStrategy a = ApiUtils.extract(LimitedV1ApiCommand.class);
+
+        ApiThrottle throttle = ApiThrottle.of(a, null, null);
+        throttle.acquire(a);
+
+        // The same limits - the same permits in use
+        ApiThrottle same = ApiThrottle.of(a, null, throttle);
+        Assertions.assertSame(throttle, same);
+        Assertions.assertThrows(APIException.class, () -> same.acquire(a));
+        Assertions.assertSame(throttle, ApiThrottle.of(a, new ApiLimits(1, 0), throttle));
+
+        // Changed limits
+        Assertions.assertNotSame(throttle, ApiThrottle.of(a, new ApiLimits(2, 0), throttle));
+        Assertions.assertSame(ApiThrottle.NONE, ApiThrottle.of(a, new ApiLimits(0, 0), throttle));
+        throttle.release();
+    }
+
+    @Test
+    public void testConcurrencyRejectionKeepsRate() {
+
+        ApiThrottle throttle = new ApiThrottle(1, 2);
+        ApiStrategy a = ApiUtils.extract(CachedV1ApiCommand.class);
+
+        throttle.acquire(a);
+        // Rejected by the bulkhead, the rate is not spent
+        Assertions.assertThrows(APIException.class, () -> throttle.acquire(a));
+        throttle.release();
+
+        throttle.acquire(a);
+        throttle.release();
+
+        // Now the rate is exceeded, and the permit is returned on rejection
+        for (int i = 0; i < 2; i++) {
+            APIException ex = Assertions.assertThrows(APIException.class, () -> throttle.acquire(a));
+            Assertions.assertTrue(ex.getMessage().startsWith("Rate limit exceeded"), ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testDeadline() {
+
+        APICommand expired = new APICommand(PING, "v1").addRaw("{\"value\": \"hello d\"}").method(GET)
+                .deadline(System.currentTimeMillis() - 1);
+
+        APIException ex = Assertions.assertThrows(APIException.class, () -> factory.process(expired));
+        Assertions.assertEquals(APIException.ERROR_DEADLINE_EXCEEDED, ex.getErrorCode());
+
+        APICommand cmd = factory.process(new APICommand(PING, "v1").addRaw("{\"value\": \"hello d\"}")
+                .method(GET).timeout(60_000L));
+        Assertions.assertNotNull(cmd.getResponse());
+        Assertions.assertTrue(cmd.remainingMillis() > 0 && cmd.remainingMillis() <= 60_000L);
+
+        // The deadline is not left in the thread
+        Assertions.assertNull(QueryDeadline.get());
+    }
+
+    @Test
+    public void testMetrics() {
+
+        APICommandFactoryImpl impl = AopTestUtils.getTargetObject(factory);
+        ApiMetricsRegistry metrics = (ApiMetricsRegistry) impl.getMetrics();
+        metrics.clear();
+
+        // The metrics of registered commands are resolved once and kept on clearing
+        ApiMetricsRegistry.CommandMetrics ping = metrics.getCommands().entrySet().stream()
+                .filter(e -> PING.equals(e.getKey().getCommandId()) && "v1".equals(e.getKey().getVersion())
+                        && e.getKey().getMethod() == MethodTypes.Get)
+                .map(Map.Entry::getValue).findFirst().orElseThrow();
+        Assertions.assertEquals(0, ping.getLatency(ApiMetrics.Phase.TOTAL).getCount());
+
+        factory.process(new APICommand(PING, "v1").addRaw("{\"value\": \"hello m\"}").method(GET));
+        Assertions.assertEquals(1, ping.getLatency(ApiMetrics.Phase.TOTAL).getCount());
+        Assertions.assertThrows(APIException.class, () -> factory.process(new APICommand("Error", "v1").method(GET)));
+
+        String text = PrometheusExporter.export(metrics);
+        Assertions.assertTrue(text.contains(
+                "api_command_duration_seconds_count{command=\"Ping\",version=\"v1\",method=\"GET\",phase=\"invoke\"} 1"));
+        Assertions.assertTrue(text.contains(
+                "api_command_duration_seconds_count{command=\"Ping\",version=\"v1\",method=\"GET\",phase=\"total\"} 1"));
+        Assertions.assertTrue(text.contains(
+                "api_command_payload_size_count{command=\"Ping\",version=\"v1\",method=\"GET\",direction=\"request\"} 1"));
+        Assertions.assertTrue(text.contains(
+                "api_command_errors_total{command=\"Error\",version=\"v1\",method=\"GET\",code=\"5\"} 1"));
+    }
+
     @Test
     public void testAPIInfoExtraction() {
         ApiStrategy api = ApiUtils.extract(EmptyV1ApiCommand.class);
         Assertions.assertEquals("Empty", api.id());
         Assertions.assertEquals("v1", api.version());
     }
+
+    /**
+     * Response models are taken from the declared results for the warm-up
+     */
+    @Test
+    public void testResponseModels() {
+        Assertions.assertEquals(Set.of(ResponseModel.class), ApiUtils.responseModels(new ExportV1ApiCommand()));
+        Assertions.assertEquals(Set.of(ResponseModel.class), ApiUtils.responseModels(new FeedV1ApiCommand()));
+        // 'patch' declares just an object
+        Assertions.assertEquals(Set.of(ResponseModel.class), ApiUtils.responseModels(new ObjectsApiCommand()));
+        Assertions.assertEquals(Set.of(), ApiUtils.responseModels(new AbstractApiCommandStrategyImpl()));
+    }
+
+    /**
+     * A factory implementing only the original methods of the interface
+     * (written before the streams and batches were added)
+     */
+    private APICommandFactory legacyFactory() {
+
+        return new APICommandFactory() {
+
+            @Override
+            public APICommand process(APICommand cmd) {
+                return factory.process(cmd);
+            }
+
+            @Override
+            public APICommand error(APICommand cmd, Throwable ex) {
+                return factory.error(cmd, ex);
+            }
+
+            @Override
+            public APICommand error(APICommand cmd, Throwable ex, ResponseModel model) {
+                return factory.error(cmd, ex, model);
+            }
+
+            @Override
+            public APICommand error(Throwable ex) {
+                return factory.error(ex);
+            }
+        };
+    }
+
+    /**
+     * Use case: the default methods of the interface for legacy implementors
+     */
+    @Test
+    public void testLegacyFactory() {
+
+        APICommandFactory legacy = legacyFactory();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        legacy.process(new APICommand(PING, "v1").method(GET),
+                new ByteArrayInputStream("{\"value\": \"hello l\"}".getBytes(StandardCharsets.UTF_8)), out);
+        Assertions.assertTrue(out.toString(StandardCharsets.UTF_8).contains("hello l GET"));
+
+        ByteArrayOutputStream rs = new ByteArrayOutputStream();
+        legacy.processReactive(new APICommand(PING, "v1").method(GET),
+                new ByteArrayInputStream("{\"value\": \"hello r\"}".getBytes(StandardCharsets.UTF_8)), rs).join();
+        Assertions.assertTrue(rs.toString(StandardCharsets.UTF_8).contains("hello r GET"));
+
+        Assertions.assertThrows(UnsupportedOperationException.class,
+                () -> legacy.process(new APICommand(PING, "v1").method(GET).requestEncoding(ContentEncoding.GZIP),
+                        new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream()));
+
+        Assertions.assertEquals("hello a GET", legacy.processAsync(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello a\"}").method(GET)).join().getResponse().message);
+
+        List<APICommand> batch = legacy.batch(List.of(
+                new APICommand(PING, "v1").addRaw("{\"value\": \"hello b\"}").method(GET),
+                new APICommand(PING, "v3").addRaw("{\"value\": \"hello\"}").method(GET)));
+        Assertions.assertEquals("hello b GET", batch.get(0).getResponse().message);
+        Assertions.assertEquals(Integer.valueOf(1), batch.get(1).getResponse().code);
+
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> legacy.batchInTransaction(List.of()));
+        Assertions.assertEquals(EnumSet.allOf(MethodTypes.class), legacy.allowedMethods(PING, "v1"));
+    }
 }
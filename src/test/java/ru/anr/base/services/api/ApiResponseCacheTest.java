@@ -0,0 +1,51 @@
+package ru.anr.base.services.api;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.anr.base.BaseParent;
+import ru.anr.base.domain.api.APICommand;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests for the cache of API responses
+ *
+ * @created Oct 18, 2026
+ */
+
+public class ApiResponseCacheTest extends BaseParent {
+
+    private static ApiResponseCache.ResponseKey key(int i) {
+        return new ApiResponseCache.ResponseKey(new APICommand("Cmd" + i, "v1"));
+    }
+
+    private static void put(ApiResponseCache cache, int i) {
+        cache.put(key(i), new APICommand("Cmd" + i, "v1").addRaw("{}"), "{}".getBytes(StandardCharsets.UTF_8), 60);
+    }
+
+    /**
+     * The least recently used responses are evicted
+     */
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+
+        ApiResponseCache cache = new ApiResponseCache(10);
+        for (int i = 0; i < 10; i++) {
+            put(cache, i);
+        }
+
+        // The oldest ones are used again
+        Assertions.assertNotNull(cache.get(key(0)));
+        Assertions.assertNotNull(cache.get(key(1)));
+
+        put(cache, 10); // One response is evicted
+        Assertions.assertNull(cache.get(key(2)));
+
+        put(cache, 11);
+        Assertions.assertNull(cache.get(key(3)));
+
+        for (int i : new int[]{ 0, 1, 4, 5, 6, 7, 8, 9, 10, 11 }) {
+            Assertions.assertNotNull(cache.get(key(i)), "Response " + i);
+        }
+    }
+}
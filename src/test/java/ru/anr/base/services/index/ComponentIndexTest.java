@@ -0,0 +1,101 @@
+package ru.anr.base.services.index;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import ru.anr.base.samples.services.extensions.OneExtension;
+import ru.anr.base.samples.services.extensions.SecondExtension;
+import ru.anr.base.samples.services.extensions.ThirdExtension;
+import ru.anr.base.services.BaseLocalServiceTestCase;
+import ru.anr.base.services.pattern.Strategy;
+
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for the build-time index of components
+ *
+ * @created Oct 18, 2026
+ */
+public class ComponentIndexTest extends BaseLocalServiceTestCase {
+
+    @Autowired
+    private ApplicationContext context;
+
+    @Test
+    public void testIndexedEntries() {
+
+        ComponentIndex index = ComponentIndex.load(getClass().getClassLoader());
+        Assertions.assertFalse(index.isEmpty());
+
+        List<String> extensions = index.entries(ComponentIndex.Kind.EXTENSION, "default").stream()
+                .map(ComponentIndex.Entry::getClassName).collect(Collectors.toList());
+        Assertions.assertTrue(extensions.contains(OneExtension.class.getName()));
+        Assertions.assertTrue(extensions.contains(ThirdExtension.class.getName()));
+
+        Assertions.assertFalse(index.entries(ComponentIndex.Kind.VALIDATOR, null).isEmpty());
+    }
+
+    @Test
+    public void testIndexedBeans() {
+
+        ComponentIndex index = ComponentIndex.load(getClass().getClassLoader());
+
+        @SuppressWarnings("rawtypes")
+        List<Strategy> beans = index.beans(context, ComponentIndex.Kind.EXTENSION, "default", Strategy.class);
+        Assertions.assertNotNull(beans);
+        Assertions.assertTrue(beans.stream().anyMatch(b -> b instanceof OneExtension));
+        Assertions.assertTrue(beans.stream().anyMatch(b -> b instanceof ThirdExtension));
+
+        Assertions.assertTrue(index.beans(context, ComponentIndex.Kind.EXTENSION, "unknown", Strategy.class).isEmpty());
+    }
+
+    @Test
+    public void testMissingBeansSkipped() {
+
+        ComponentIndex index = new ComponentIndex(List.of(
+                new ComponentIndex.Entry(ComponentIndex.Kind.EXTENSION, OneExtension.class.getName(), "x"),
+                new ComponentIndex.Entry(ComponentIndex.Kind.EXTENSION, ComponentIndexTest.class.getName(), "x"),
+                new ComponentIndex.Entry(ComponentIndex.Kind.EXTENSION, "x.y.Missing", "x")),
+                Set.of(), getClass().getClassLoader());
+
+        @SuppressWarnings("rawtypes")
+        List<Strategy> beans = index.beans(context, ComponentIndex.Kind.EXTENSION, "x", Strategy.class);
+        Assertions.assertEquals(1, beans.size());
+        Assertions.assertTrue(beans.get(0) instanceof OneExtension);
+
+        // The same result with the cached names
+        Assertions.assertEquals(1, index.beans(context, ComponentIndex.Kind.EXTENSION, "x", Strategy.class).size());
+    }
+
+    @Test
+    public void testNotIndexedLocations() {
+
+        // Nothing is covered by the index, so the annotations are checked
+        ComponentIndex index = new ComponentIndex(List.of(
+                new ComponentIndex.Entry(ComponentIndex.Kind.EXTENSION, "x.y.Missing", "x")),
+                Set.of(), getClass().getClassLoader());
+
+        @SuppressWarnings("rawtypes")
+        List<Strategy> beans = index.beans(context, ComponentIndex.Kind.EXTENSION, "default", Strategy.class);
+        Assertions.assertTrue(beans.stream().anyMatch(b -> b instanceof OneExtension));
+        Assertions.assertTrue(beans.stream().anyMatch(b -> b instanceof ThirdExtension));
+        Assertions.assertTrue(beans.stream().noneMatch(b -> b instanceof SecondExtension));
+    }
+
+    @Test
+    public void testParsing() {
+
+        ComponentIndex.Entry e = ComponentIndex.Entry.parse("EXTENSION\tx.y.Z\tdefault");
+        Assertions.assertEquals(ComponentIndex.Kind.EXTENSION, e.getKind());
+        Assertions.assertEquals("x.y.Z", e.getClassName());
+        Assertions.assertEquals("default", e.getKey());
+        Assertions.assertEquals("EXTENSION\tx.y.Z\tdefault", e.format());
+
+        Assertions.assertNull(ComponentIndex.Entry.parse("# comment"));
+        // Strategies were indexed by previous versions
+        Assertions.assertNull(ComponentIndex.Entry.parse("API\tx.y.Z\tPing\tv2"));
+    }
+}
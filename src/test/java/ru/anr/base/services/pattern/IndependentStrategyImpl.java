@@ -0,0 +1,16 @@
+package ru.anr.base.services.pattern;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A sample parallel strategy which doesn't need the caller's transaction
+ *
+ * @created Oct 18, 2026
+ */
+@TransactionIndependent
+public class IndependentStrategyImpl extends ParallelStrategyImpl {
+
+    public IndependentStrategyImpl(String value, CountDownLatch latch) {
+        super(value, latch);
+    }
+}
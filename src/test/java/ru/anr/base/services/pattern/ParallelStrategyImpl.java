@@ -0,0 +1,74 @@
+package ru.anr.base.services.pattern;
+
+import org.slf4j.MDC;
+import ru.anr.base.ApplicationException;
+import ru.anr.base.services.pattern.StrategyConfig.StrategyModes;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sample parallel strategy which waits for other strategies sharing the
+ * same latch.
+ *
+ * @created Oct 18, 2026
+ */
+public class ParallelStrategyImpl implements Strategy<Object> {
+
+    private final String value;
+
+    private final CountDownLatch latch;
+
+    /**
+     * The thread which processed the strategy
+     */
+    private volatile Thread thread;
+
+    /**
+     * The 'request' value of MDC seen by the strategy
+     */
+    private volatile String request;
+
+    public ParallelStrategyImpl(String value, CountDownLatch latch) {
+        this.value = value;
+        this.latch = latch;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StrategyConfig check(Object o, Object... params) {
+        return new StrategyConfig(true, o, StrategyModes.Parallel, params);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object process(Object o, StrategyConfig cfg) {
+
+        thread = Thread.currentThread();
+        request = MDC.get("request");
+
+        latch.countDown();
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) {
+                throw new ApplicationException("Not concurrent");
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApplicationException(ex);
+        }
+        cfg.add(value);
+        return null; // Ignored
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public String getRequest() {
+        return request;
+    }
+}
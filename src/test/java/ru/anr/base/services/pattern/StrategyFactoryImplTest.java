@@ -2,9 +2,16 @@ package ru.anr.base.services.pattern;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import ru.anr.base.samples.domain.Samples;
 import ru.anr.base.services.BaseLocalServiceTestCase;
 
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
 /**
  * Tests for strategy factory
  *
@@ -94,4 +101,147 @@ public class StrategyFactoryImplTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals(2, st.getAppliedStrategies().size());
         Assertions.assertTrue(st.getAppliedStrategies().containsAll(list(NopStrategyImpl.class, TerminateStrategyImpl.class)));
     }
+
+    /**
+     * Strategies for other types are not checked at all
+     */
+    @Test
+    public void testApplicableTypes() {
+
+        StrategyFactory sf = new StrategyFactoryImpl(list(
+                new NopStrategyImpl(),
+                new StringStrategyImpl(),
+                new NopStrategyImpl()), true);
+
+        StrategyStatistic st = sf.process(new Samples());
+        Assertions.assertEquals(list(NopStrategyImpl.class, NopStrategyImpl.class), st.getAppliedStrategies());
+
+        st = sf.process("x");
+        Assertions.assertEquals(list(NopStrategyImpl.class, StringStrategyImpl.class, NopStrategyImpl.class),
+                st.getAppliedStrategies());
+        Assertions.assertEquals(list("x"), st.getResults());
+
+        // The same chain for the same class
+        Assertions.assertEquals(list("y"), sf.process("y").getResults());
+
+        st = sf.process(null);
+        Assertions.assertEquals(2, st.getAppliedStrategies().size());
+    }
+
+    /**
+     * Parallel strategies are processed concurrently, but their results are
+     * collected in the declared order
+     */
+    @Test
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void testParallel() {
+
+        CountDownLatch latch = new CountDownLatch(3);
+        ParallelStrategyImpl a = new ParallelStrategyImpl("a", latch);
+        ParallelStrategyImpl b = new ParallelStrategyImpl("b", latch);
+        ParallelStrategyImpl c = new ParallelStrategyImpl("c", latch);
+        StrategyFactory sf = new StrategyFactoryImpl(list(a, b, c, new StringStrategyImpl()), true);
+
+        MDC.put("request", "r1");
+        try {
+            StrategyStatistic st = sf.process("x");
+
+            Assertions.assertEquals("x", st.getObject());
+            Assertions.assertEquals(list("a", "b", "c", "x"), st.getResults());
+            Assertions.assertEquals(4, st.getAppliedStrategies().size());
+        } finally {
+            MDC.remove("request");
+        }
+
+        // The logging context is passed to other threads
+        Assertions.assertEquals("r1", a.getRequest());
+        Assertions.assertEquals("r1", b.getRequest());
+        Assertions.assertEquals("r1", c.getRequest());
+    }
+
+    /**
+     * Parallel strategies are processed in the calling thread, if it has an
+     * active transaction (the test's one), except the ones which don't need
+     * the transaction
+     */
+    @Test
+    public void testParallelInTransaction() {
+
+        Assertions.assertTrue(TransactionSynchronizationManager.isActualTransactionActive());
+
+        // Each strategy doesn't wait for others
+        ParallelStrategyImpl a = new ParallelStrategyImpl("a", new CountDownLatch(1));
+        ParallelStrategyImpl b = new ParallelStrategyImpl("b", new CountDownLatch(1));
+
+        // These ones wait for each other
+        CountDownLatch latch = new CountDownLatch(2);
+        ParallelStrategyImpl c = new IndependentStrategyImpl("c", latch);
+        ParallelStrategyImpl d = new IndependentStrategyImpl("d", latch);
+
+        StrategyFactory sf = new StrategyFactoryImpl(list(a, c, b, d, new StringStrategyImpl()), true);
+
+        StrategyStatistic st = sf.process("x");
+        Assertions.assertEquals(list("a", "c", "b", "d", "x"), st.getResults());
+
+        Assertions.assertSame(Thread.currentThread(), a.getThread());
+        Assertions.assertSame(Thread.currentThread(), b.getThread());
+        Assertions.assertNotSame(Thread.currentThread(), c.getThread());
+        Assertions.assertNotSame(Thread.currentThread(), d.getThread());
+    }
+
+    /**
+     * Statistics of strategies
+     */
+    @Test
+    public void testMetrics() {
+
+        StrategyMetrics metrics = new StrategyMetrics();
+        StrategyFactory sf = new StrategyFactoryImpl("ext", list(
+                new NopStrategyImpl(),
+                new FalseStrategyImpl(),
+                new TerminateStrategyImpl(),
+                new StringStrategyImpl()), false, metrics);
+
+        sf.process(new Samples());
+        sf.process(new Samples());
+
+        Map<Class<?>, StrategyMetrics.Counters> m = metrics.getStrategies("ext");
+        Assertions.assertEquals(4, m.size());
+
+        Assertions.assertEquals(2, m.get(NopStrategyImpl.class).getChecks());
+        Assertions.assertEquals(1.0, m.get(NopStrategyImpl.class).getHitRate());
+
+        Assertions.assertEquals(2, m.get(FalseStrategyImpl.class).getChecks());
+        Assertions.assertEquals(0.0, m.get(FalseStrategyImpl.class).getHitRate());
+
+        Assertions.assertEquals(2, m.get(TerminateStrategyImpl.class).getTerminations());
+        Assertions.assertEquals(0, m.get(StringStrategyImpl.class).getChecks());
+
+        metrics.reset();
+        Assertions.assertEquals(0, m.get(NopStrategyImpl.class).getChecks());
+        Assertions.assertTrue(metrics.getStrategies("unknown").isEmpty());
+    }
+
+    /**
+     * Executing a chain without statistics
+     */
+    @Test
+    public void testExecute() {
+
+        Samples o = new Samples();
+        StrategyFactory sf = strategyFactory1();
+        Assertions.assertSame(o, sf.execute(o));
+
+        StrategyConfig cfg = StrategyConfig.notApplicable();
+        Assertions.assertFalse(cfg.isApplicable());
+        Assertions.assertSame(cfg, StrategyConfig.notApplicable());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> cfg.add("x"));
+
+        StrategyConfig c = new StrategyConfig(true, o, StrategyConfig.StrategyModes.Normal);
+        Assertions.assertFalse(c.hasCollection());
+        Assertions.assertEquals(0, c.getParams().length);
+        c.add("x");
+        Assertions.assertTrue(c.hasCollection());
+        Assertions.assertEquals(list("x"), c.getCollection());
+    }
 }
@@ -0,0 +1,30 @@
+package ru.anr.base.services.pattern;
+
+import ru.anr.base.services.pattern.StrategyConfig.StrategyModes;
+
+/**
+ * A sample strategy for strings only. It fails, if it's checked with other
+ * objects.
+ *
+ * @created Oct 18, 2026
+ */
+@ApplicableTo(String.class)
+public class StringStrategyImpl implements Strategy<Object> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public StrategyConfig check(Object o, Object... params) {
+        return new StrategyConfig(!((String) o).isEmpty(), o, StrategyModes.Normal, params);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object process(Object o, StrategyConfig cfg) {
+        cfg.add(o);
+        return o;
+    }
+}
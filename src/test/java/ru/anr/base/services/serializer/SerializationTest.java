@@ -1,5 +1,6 @@
 package ru.anr.base.services.serializer;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.util.StdDateFormat;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
@@ -8,10 +9,14 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import ru.anr.base.BaseParent;
+import ru.anr.base.domain.api.RawFormatTypes;
+import ru.anr.base.domain.api.models.PingModel;
 import ru.anr.base.samples.domain.Model;
 import ru.anr.base.samples.domain.SubModel;
 import ru.anr.base.services.BaseLocalServiceTestCase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.time.ZonedDateTime;
@@ -59,6 +64,18 @@ public class SerializationTest extends BaseLocalServiceTestCase {
     @Qualifier("jsonSerializer")
     private Serializer json;
 
+    @Autowired
+    @Qualifier("smileSerializer")
+    private Serializer smile;
+
+    @Autowired
+    @Qualifier("cborSerializer")
+    private Serializer cbor;
+
+    @Autowired
+    @Qualifier("serializerRegistry")
+    private SerializerRegistry registry;
+
     /**
      * JSON Tests
      */
@@ -85,6 +102,150 @@ public class SerializationTest extends BaseLocalServiceTestCase {
         Assertions.assertEquals(d("600").toPlainString(), d("600.00").stripTrailingZeros().toPlainString());
     }
 
+    /**
+     * JSON serialization with a sparse fieldset
+     */
+    @Test
+    public void testJSONFields() {
+
+        Model m = newModel();
+
+        Assertions.assertEquals("{\"field\":\"xxx\",\"sub\":[{\"value\":1},{\"value\":2}]}",
+                json.toStr(m, list("field", "sub.value")));
+        Assertions.assertEquals("{\"sub\":[{\"value\":1},{\"value\":2}],\"sum\":322.0323293}",
+                json.toStr(m, list("sub", "sum")));
+
+        // The usual serialization is not affected
+        Assertions.assertEquals(TEST_JSON, json.toStr(m));
+
+        // The envelope of the response is kept
+        PingModel p = new PingModel();
+        p.code = 0;
+        p.description = "d";
+        p.value = "v";
+
+        String str = json.toStr(p, list("value"));
+        Assertions.assertTrue(str.contains("\"code\":0"));
+        Assertions.assertTrue(str.contains("\"description\":\"d\""));
+        Assertions.assertTrue(str.contains("\"value\":\"v\""));
+    }
+
+    /**
+     * A serializer which implements only the original methods of the
+     * interface
+     */
+    private Serializer legacy() {
+
+        return new Serializer() {
+            @Override
+            public <S> S fromStr(String s, Class<S> clazz) {
+                return json.fromStr(s, clazz);
+            }
+
+            @Override
+            public <S> S fromStr(String s, TypeReference<S> ref) {
+                return json.fromStr(s, ref);
+            }
+
+            @Override
+            public String toStr(Object o) {
+                return json.toStr(o);
+            }
+
+            @Override
+            public ObjectMapper mapper() {
+                return json.mapper();
+            }
+        };
+    }
+
+    /**
+     * The stream and fields methods are available for other implementations
+     */
+    @Test
+    public void testDefaultMethods() throws IOException {
+
+        Serializer s = legacy();
+        Model m = newModel();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        s.toStream(m, out);
+        Assertions.assertEquals(TEST_JSON, out.toString("UTF-8"));
+
+        Model mx = s.fromStream(new ByteArrayInputStream(out.toByteArray()), Model.class);
+        Assertions.assertEquals(m.field, mx.field);
+
+        Assertions.assertEquals(TEST_JSON, s.toStr(m, list()));
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> s.toStr(m, list("field")));
+
+        out = new ByteArrayOutputStream();
+        s.toStream(list(new SubModel(1), new SubModel(2)).iterator(), out, true, null);
+        Assertions.assertEquals("{\"value\":1}\n{\"value\":2}", out.toString("UTF-8").trim());
+    }
+
+    /**
+     * Binary formats: the string and the stream forms
+     */
+    @Test
+    public void testBinaryFormats() {
+
+        for (Serializer s : list(smile, cbor)) {
+
+            Model m = newModel();
+
+            Model mx = s.fromStr(s.toStr(m), Model.class);
+            Assertions.assertEquals(m.field, mx.field);
+            Assertions.assertEquals(m.sum, mx.sum);
+            Assertions.assertEquals(2, mx.subs.size());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            s.toStream(m, out);
+
+            mx = s.fromStream(new ByteArrayInputStream(out.toByteArray()), Model.class);
+            Assertions.assertEquals(m.time, mx.time);
+            Assertions.assertTrue(out.size() < json.toStr(m).length());
+        }
+    }
+
+    /**
+     * Binary formats: the bytes are the binary data, not the Base64 text
+     */
+    @Test
+    public void testBytes() {
+
+        for (Serializer s : list(smile, cbor, json)) {
+
+            Model m = newModel();
+            byte[] b = s.toBytes(m);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            s.toStream(m, out);
+            Assertions.assertArrayEquals(out.toByteArray(), b);
+            Assertions.assertArrayEquals(b, s.strToBytes(s.toStr(m)));
+
+            Model mx = s.fromBytes(b, Model.class);
+            Assertions.assertEquals(m.field, mx.field);
+            Assertions.assertEquals(m.sum, mx.sum);
+        }
+        Assertions.assertTrue(smile.toBytes(newModel()).length < smile.toStr(newModel()).length());
+    }
+
+    @Test
+    public void testNegotiation() {
+
+        Assertions.assertEquals(RawFormatTypes.JSON, registry.negotiate(null));
+        Assertions.assertEquals(RawFormatTypes.JSON, registry.negotiate("*/*"));
+        Assertions.assertEquals(RawFormatTypes.XML, registry.negotiate("text/xml; charset=UTF-8"));
+        Assertions.assertEquals(RawFormatTypes.CBOR, registry.negotiate("application/json;q=0.5, application/cbor"));
+
+        // The compact format wins among equal ones
+        Assertions.assertEquals(RawFormatTypes.SMILE, registry.negotiate("application/json, application/x-jackson-smile"));
+        Assertions.assertEquals(RawFormatTypes.SMILE, registry.negotiate(registry.getCompactAccept()));
+
+        Assertions.assertNull(registry.negotiate("image/png, application/json;q=0"));
+        Assertions.assertEquals(RawFormatTypes.SMILE, RawFormatTypes.ofMediaType("Application/X-Jackson-Smile"));
+    }
+
     /**
      * JSON stripped etalon
      */